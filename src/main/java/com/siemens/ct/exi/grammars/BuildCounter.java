@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+/**
+ * Counters of a grammar build reported to a {@link GrammarBuildListener}.
+ * Pool hit rates follow from the according <code>_HITS</code> and
+ * <code>_LOOKUPS</code> counters.
+ * 
+ * @see GrammarBuildListener#buildFinished(java.util.Map)
+ */
+
+public enum BuildCounter {
+	/** distinct content model states explored */
+	CONTENT_MODEL_STATES,
+	/** productions of content model and attribute use grammars */
+	PRODUCTIONS,
+	/** datatypes created for simple type definitions */
+	DATATYPES,
+	/** datatype pool lookups */
+	DATATYPE_LOOKUPS,
+	/** datatype pool hits */
+	DATATYPE_HITS,
+	/** created datatypes replaced by a structurally equal datatype */
+	DATATYPE_INTERN_HITS,
+	/** type grammar lookups by type name */
+	TYPE_GRAMMAR_LOOKUPS,
+	/** type grammar hits by type name */
+	TYPE_GRAMMAR_HITS,
+	/** content grammar lookups by content model */
+	CONTENT_MODEL_LOOKUPS,
+	/** content grammar hits by content model */
+	CONTENT_MODEL_HITS,
+	/** element pool lookups */
+	ELEMENT_LOOKUPS,
+	/** element pool hits */
+	ELEMENT_HITS,
+	/** shared attribute use grammar lookups */
+	ATTRIBUTE_GRAMMAR_LOOKUPS,
+	/** shared attribute use grammar hits */
+	ATTRIBUTE_GRAMMAR_HITS;
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+/**
+ * Phases of a grammar build reported to a {@link GrammarBuildListener}.
+ * 
+ * <p>
+ * Global type and element grammars are translated while the global
+ * declarations are assigned to their qname contexts (and again, mostly
+ * already translated, by the final pass over all global components). The
+ * durations of both passes add up in the according phase.
+ * </p>
+ * 
+ * @see XSDGrammarsBuilder#setGrammarBuildListener(GrammarBuildListener)
+ */
+
+public enum BuildPhase {
+	/** parsing the XML Schema documents into the XML Schema model */
+	SCHEMA_LOAD,
+	/** collecting namespaces and local names for the string tables */
+	STRING_TABLE_ENTRIES,
+	/** translating global type definitions */
+	GLOBAL_TYPES,
+	/** translating global element and attribute declarations */
+	GLOBAL_ELEMENTS,
+	/** exploring content models in parallel or lazy declarations up-front */
+	CONTENT_MODELS,
+	/** document and fragment grammars */
+	FRAGMENT_GRAMMARS,
+	/** schema-informed element fragment grammar */
+	ELEMENT_FRAGMENT_GRAMMAR;
+}
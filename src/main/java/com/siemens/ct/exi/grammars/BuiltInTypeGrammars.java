@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+
+import org.apache.xerces.xs.XSSimpleTypeDefinition;
+
+import com.siemens.ct.exi.core.Constants;
+import com.siemens.ct.exi.core.context.GrammarContext;
+import com.siemens.ct.exi.core.context.GrammarUriContext;
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.datatype.Datatype;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.exceptions.UnsupportedOption;
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+import com.siemens.ct.exi.core.grammars.grammar.Document;
+import com.siemens.ct.exi.core.grammars.grammar.Fragment;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedGrammar;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedFirstStartTagGrammar;
+
+/**
+ * Grammar information for the XML Schema built-in types (namespace
+ * "http://www.w3.org/2001/XMLSchema"). The information is built once and is
+ * shared by builders so that the built-in type grammars and datatypes are
+ * not translated again for every schema. The according XSD-types-only
+ * grammars are shared process-wide as well.
+ * 
+ * <p>
+ * Note: Shared grammars and datatypes are never modified by a builder.
+ * </p>
+ * 
+ */
+
+final class BuiltInTypeGrammars {
+
+	// URI 3 "http://www.w3.org/2001/XMLSchema"
+	final GrammarUriContext xsdUriContext;
+
+	final Map<QName, SchemaInformedFirstStartTagGrammar> typeGrammars;
+
+	// Xerces built-in simple types are singletons
+	final Map<XSSimpleTypeDefinition, Datatype> datatypes;
+
+	// identities of the shared datatypes
+	private final Set<Datatype> sharedDatatypes;
+
+	// XSD-types-only grammars
+	final SchemaInformedGrammars grammars;
+
+	private static volatile BuiltInTypeGrammars instance;
+
+	private BuiltInTypeGrammars(SchemaInformedGrammars grammars,
+			GrammarUriContext xsdUriContext,
+			Map<QName, SchemaInformedFirstStartTagGrammar> typeGrammars,
+			Map<XSSimpleTypeDefinition, Datatype> datatypes) {
+		this.grammars = grammars;
+		this.xsdUriContext = xsdUriContext;
+		this.typeGrammars = Collections.unmodifiableMap(typeGrammars);
+		this.datatypes = Collections.unmodifiableMap(datatypes);
+		this.sharedDatatypes = Collections
+				.newSetFromMap(new IdentityHashMap<Datatype, Boolean>());
+		this.sharedDatatypes.addAll(datatypes.values());
+	}
+
+	/*
+	 * Whether the context is one of the shared built-in type contexts.
+	 */
+	boolean isShared(QNameContext qnc) {
+		int localNameID = qnc.getLocalNameID();
+		return qnc.getNamespaceUriID() == xsdUriContext.getNamespaceUriID()
+				&& localNameID < xsdUriContext.getNumberOfQNames()
+				&& xsdUriContext.getQNameContext(localNameID) == qnc;
+	}
+
+	/*
+	 * Whether the datatype is one of the shared built-in datatypes.
+	 */
+	boolean isShared(Datatype datatype) {
+		return sharedDatatypes.contains(datatype);
+	}
+
+	static BuiltInTypeGrammars getInstance() throws EXIException {
+		BuiltInTypeGrammars bitg = instance;
+		if (bitg == null) {
+			synchronized (BuiltInTypeGrammars.class) {
+				bitg = instance;
+				if (bitg == null) {
+					instance = bitg = create();
+				}
+			}
+		}
+		return bitg;
+	}
+
+	private static BuiltInTypeGrammars create() throws EXIException {
+		XSDGrammarsBuilder grammarBuilder = XSDGrammarsBuilder.newInstance();
+		grammarBuilder.loadXSDTypesOnlyGrammars();
+		SchemaInformedGrammars g = grammarBuilder.toGrammars();
+
+		GrammarUriContext xsdUriContext = null;
+		for (GrammarUriContext guc : grammarBuilder.grammarUriContexts) {
+			if (Constants.XML_SCHEMA_NS_URI.equals(guc.getNamespaceUri())) {
+				xsdUriContext = guc;
+			}
+		}
+		assert (xsdUriContext != null);
+
+		SchemaInformedGrammars grammars = new XSDTypesOnlyGrammars(
+				g.getGrammarContext(),
+				(Document) g.getDocumentGrammar(),
+				(Fragment) g.getFragmentGrammar(),
+				g.getSchemaInformedElementFragmentGrammar());
+
+		return new BuiltInTypeGrammars(grammars, xsdUriContext,
+				new HashMap<QName, SchemaInformedFirstStartTagGrammar>(
+						grammarBuilder.grammarTypes),
+				new HashMap<XSSimpleTypeDefinition, Datatype>(
+						grammarBuilder.datatypePool));
+	}
+
+	/**
+	 * XSD-types-only grammars that are shared and therefore reject the
+	 * modification of the grammars object. Contexts, grammars and productions
+	 * are not wrapped, callers must not modify them.
+	 */
+	static final class XSDTypesOnlyGrammars extends SchemaInformedGrammars {
+
+		XSDTypesOnlyGrammars(GrammarContext grammarContext,
+				Document document, Fragment fragment,
+				SchemaInformedGrammar elementFragmentGrammar) {
+			super(grammarContext, document, fragment, elementFragmentGrammar);
+			this.builtInXMLSchemaTypesOnly = true;
+		}
+
+		@Override
+		public void setBuiltInXMLSchemaTypesOnly(
+				boolean builtInXMLSchemaTypesOnly) {
+			throw new UnsupportedOperationException(
+					"Shared XSD-types-only grammars cannot be modified.");
+		}
+
+		@Override
+		public void setSchemaId(String schemaId) throws UnsupportedOption {
+			throw new UnsupportedOption(
+					"Shared XSD-types-only grammars cannot be modified.");
+		}
+	}
+}
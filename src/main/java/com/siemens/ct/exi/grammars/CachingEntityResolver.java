@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.xni.XMLResourceIdentifier;
+import org.apache.xerces.xni.XNIException;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xni.parser.XMLInputSource;
+
+/**
+ * Entity resolver that keeps the content of resolved schema documents in
+ * memory. Documents are identified by their expanded system identifier and
+ * are read only once, either via an optional delegate resolver or from the
+ * system identifier itself. The least recently used documents are evicted
+ * once the configured number of bytes is exceeded.
+ * 
+ * <p>
+ * Preloaded documents (single documents, directory snapshots or zip
+ * bundles) are never evicted, so builds do not touch the file system once
+ * all documents are preloaded. A resolver instance is thread-safe.
+ * </p>
+ * 
+ */
+
+public class CachingEntityResolver implements XMLEntityResolver {
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 16 * 1024 * 1024;
+
+	protected final XMLEntityResolver entityResolver;
+
+	protected final long maximumSize;
+
+	// expanded system id --> document, never evicted
+	protected final Map<String, Document> preloaded;
+
+	// expanded system id --> document, access-order for LRU eviction
+	protected final Map<String, Document> documents;
+
+	// bytes held by documents
+	protected long size;
+
+	protected CachingEntityResolver(XMLEntityResolver entityResolver,
+			long maximumSize) {
+		if (maximumSize < 0) {
+			throw new IllegalArgumentException(
+					"Negative maximum cache size, " + maximumSize);
+		}
+		this.entityResolver = entityResolver;
+		this.maximumSize = maximumSize;
+		this.preloaded = new HashMap<String, Document>();
+		this.documents = new LinkedHashMap<String, Document>(16, 0.75f, true);
+	}
+
+	/**
+	 * Create caching entity resolver instance holding up to
+	 * {@link #DEFAULT_MAXIMUM_SIZE} bytes.
+	 * 
+	 * @return CachingEntityResolver
+	 */
+	public static CachingEntityResolver newInstance() {
+		return new CachingEntityResolver(null, DEFAULT_MAXIMUM_SIZE);
+	}
+
+	/**
+	 * Create caching entity resolver instance.
+	 * 
+	 * @param entityResolver
+	 *            resolver consulted for documents that are not cached or
+	 *            <code>null</code>
+	 * @param maximumSize
+	 *            maximum number of bytes held by not preloaded documents
+	 * @return CachingEntityResolver
+	 */
+	public static CachingEntityResolver newInstance(
+			XMLEntityResolver entityResolver, long maximumSize) {
+		return new CachingEntityResolver(entityResolver, maximumSize);
+	}
+
+	public long getMaximumSize() {
+		return maximumSize;
+	}
+
+	/**
+	 * Returns the number of bytes held by cached documents, preloaded
+	 * documents are not counted.
+	 * 
+	 * @return cached bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Preloads a single document.
+	 * 
+	 * @param systemId
+	 *            system identifier the document is referenced with
+	 * @param content
+	 *            document content
+	 */
+	public synchronized void preload(String systemId, byte[] content) {
+		preloaded.put(getKey(systemId), new Document(content, null));
+	}
+
+	/**
+	 * Preloads all files of a directory and its sub-directories. Files are
+	 * identified by their absolute location.
+	 * 
+	 * @param directory
+	 *            schema directory
+	 * @throws IOException
+	 *             if a file cannot be read
+	 */
+	public void preloadDirectory(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		for (File f : files) {
+			if (f.isDirectory()) {
+				preloadDirectory(f);
+			} else {
+				InputStream is = f.toURI().toURL().openStream();
+				try {
+					preload(f.toURI().toString(), SchemaDigest.readFully(is));
+				} finally {
+					is.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Preloads all entries of a zip bundle. Entries are identified by their
+	 * path resolved against the given base system identifier, e.g., the
+	 * directory the bundle was created from.
+	 * 
+	 * @param zip
+	 *            schema bundle
+	 * @param baseSystemId
+	 *            directory location the entry paths are relative to
+	 * @throws IOException
+	 *             if the bundle cannot be read
+	 */
+	public void preloadZip(File zip, String baseSystemId) throws IOException {
+		String base = getKey(XMLEntityManager.expandSystemId(baseSystemId,
+				null, false));
+		if (!base.endsWith("/")) {
+			base += "/";
+		}
+		ZipFile zf = new ZipFile(zip);
+		try {
+			Enumeration<? extends ZipEntry> entries = zf.entries();
+			while (entries.hasMoreElements()) {
+				ZipEntry ze = entries.nextElement();
+				if (!ze.isDirectory()) {
+					InputStream is = zf.getInputStream(ze);
+					try {
+						preload(URI.create(base).resolve(ze.getName())
+								.toString(), SchemaDigest.readFully(is));
+					} finally {
+						is.close();
+					}
+				}
+			}
+		} finally {
+			zf.close();
+		}
+	}
+
+	/**
+	 * Removes all cached documents, preloaded documents are kept.
+	 */
+	public synchronized void clear() {
+		documents.clear();
+		size = 0;
+	}
+
+	public XMLInputSource resolveEntity(XMLResourceIdentifier resourceIdentifier)
+			throws XNIException, IOException {
+		String expandedSystemId = resourceIdentifier.getExpandedSystemId();
+		if (expandedSystemId == null) {
+			if (resourceIdentifier.getLiteralSystemId() == null) {
+				// e.g., import without schemaLocation
+				return entityResolver == null ? null : entityResolver
+						.resolveEntity(resourceIdentifier);
+			}
+			expandedSystemId = XMLEntityManager.expandSystemId(
+					resourceIdentifier.getLiteralSystemId(),
+					resourceIdentifier.getBaseSystemId(), false);
+		}
+		String key = getKey(expandedSystemId);
+
+		Document doc = getDocument(key);
+		if (doc == null) {
+			doc = load(resourceIdentifier, expandedSystemId);
+			putDocument(key, doc);
+		}
+
+		XMLInputSource source = new XMLInputSource(
+				resourceIdentifier.getPublicId(), expandedSystemId,
+				resourceIdentifier.getBaseSystemId());
+		source.setByteStream(new ByteArrayInputStream(doc.content));
+		source.setEncoding(doc.encoding);
+		return source;
+	}
+
+	protected synchronized Document getDocument(String key) {
+		Document doc = preloaded.get(key);
+		if (doc == null) {
+			doc = documents.get(key);
+		}
+		return doc;
+	}
+
+	protected synchronized void putDocument(String key, Document doc) {
+		if (doc.content.length > maximumSize || documents.containsKey(key)) {
+			return;
+		}
+		documents.put(key, doc);
+		size += doc.content.length;
+		// evict least recently used documents
+		while (size > maximumSize) {
+			Map.Entry<String, Document> eldest = documents.entrySet()
+					.iterator().next();
+			size -= eldest.getValue().content.length;
+			documents.remove(eldest.getKey());
+		}
+	}
+
+	protected Document load(XMLResourceIdentifier resourceIdentifier,
+			String expandedSystemId) throws IOException {
+		XMLInputSource source = null;
+		if (entityResolver != null) {
+			source = entityResolver.resolveEntity(resourceIdentifier);
+		}
+		if (source == null) {
+			source = new XMLInputSource(resourceIdentifier.getPublicId(),
+					expandedSystemId, resourceIdentifier.getBaseSystemId());
+		}
+		String encoding = source.getByteStream() == null
+				&& source.getCharacterStream() != null ? "UTF-8" : source
+				.getEncoding();
+		String systemId = source.getSystemId() == null ? expandedSystemId
+				: XMLEntityManager.expandSystemId(source.getSystemId(),
+						source.getBaseSystemId(), false);
+		return new Document(SchemaDigest.read(source, systemId), encoding);
+	}
+
+	// file URIs are compared by their normalized path
+	protected static String getKey(String systemId) {
+		try {
+			URI uri = new URI(systemId).normalize();
+			if ("file".equals(uri.getScheme())) {
+				return new File(uri).getAbsoluteFile().toURI().toString();
+			}
+			return uri.toString();
+		} catch (Exception e) {
+			return systemId;
+		}
+	}
+
+	static class Document {
+		final byte[] content;
+		// null, detected from content
+		final String encoding;
+
+		Document(byte[] content, String encoding) {
+			this.content = content;
+			this.encoding = encoding;
+		}
+	}
+
+}
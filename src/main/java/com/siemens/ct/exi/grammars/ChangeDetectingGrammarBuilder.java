@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.grammars.SchemaDigest.SchemaDocument;
+
+/**
+ * Change-detecting parse cache for the grammars of one schema set. Every
+ * schema document is tracked by its digest and target namespace. If no
+ * document changed the previous grammars are returned as they are. Otherwise
+ * only the namespaces of changed documents, and the namespaces importing
+ * them, are parsed again; all other namespaces are taken from a private
+ * {@link SchemaGrammarPool}.
+ * 
+ * <p>
+ * Note: Type and element grammars are not reused, the EXI grammars are
+ * always translated again for the whole schema set. String table and QName
+ * identifiers are assigned over all namespaces, and grammars refer to the
+ * contexts, type grammars, substitution groups and derived types of other
+ * namespaces, so a change in one namespace may change every other grammar.
+ * </p>
+ * 
+ */
+
+public class ChangeDetectingGrammarBuilder {
+
+	protected final String xsdLocation;
+
+	protected final XMLEntityResolver entityResolver;
+
+	protected final SchemaGrammarPool schemaGrammarPool;
+
+	protected final GrammarFactory grammarFactory;
+
+	// documents of last build, expanded system id --> document
+	protected Map<String, SchemaDocument> documents;
+
+	protected Grammars grammars;
+
+	// namespaces parsed again by the last build
+	protected Set<String> changedNamespaces;
+
+	protected ChangeDetectingGrammarBuilder(String xsdLocation,
+			XMLEntityResolver entityResolver) {
+		this.xsdLocation = xsdLocation;
+		this.entityResolver = entityResolver;
+		this.schemaGrammarPool = SchemaGrammarPool.newInstance();
+		this.grammarFactory = GrammarFactory.newInstance(1);
+		this.grammarFactory.setSchemaGrammarPool(schemaGrammarPool);
+		this.changedNamespaces = Collections.emptySet();
+	}
+
+	/**
+	 * Create change-detecting grammar builder instance.
+	 * 
+	 * @param xsdLocation
+	 *            root schema location
+	 * @return ChangeDetectingGrammarBuilder
+	 */
+	public static ChangeDetectingGrammarBuilder newInstance(
+			String xsdLocation) {
+		return new ChangeDetectingGrammarBuilder(xsdLocation, null);
+	}
+
+	/**
+	 * Create change-detecting grammar builder instance.
+	 * 
+	 * @param xsdLocation
+	 *            root schema location
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @return ChangeDetectingGrammarBuilder
+	 */
+	public static ChangeDetectingGrammarBuilder newInstance(String xsdLocation,
+			XMLEntityResolver entityResolver) {
+		return new ChangeDetectingGrammarBuilder(xsdLocation, entityResolver);
+	}
+
+	public String getSchemaLocation() {
+		return xsdLocation;
+	}
+
+	/**
+	 * Returns grammars reflecting the current schema documents. Grammars are
+	 * built on the first call and are rebuilt whenever a schema document
+	 * changed since the previous call.
+	 * 
+	 * @return schema-informed EXI grammars
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	public synchronized Grammars getGrammars() throws EXIException {
+		Map<String, SchemaDocument> current = SchemaDigest.documents(
+				xsdLocation, entityResolver);
+
+		if (grammars != null && current != null && current.equals(documents)) {
+			// nothing changed
+			changedNamespaces = Collections.emptySet();
+			return grammars;
+		}
+
+		Set<String> changed = new HashSet<String>();
+		if (documents == null || current == null) {
+			// unknown state, parse everything
+			schemaGrammarPool.clear();
+			changed.add(null);
+		} else {
+			addChangedNamespaces(documents, current, changed);
+			addChangedNamespaces(current, documents, changed);
+			for (String namespace : changed) {
+				schemaGrammarPool.invalidate(namespace);
+			}
+		}
+
+		Grammars g = grammarFactory.createGrammars(xsdLocation, entityResolver);
+
+		grammars = g;
+		documents = current;
+		changedNamespaces = Collections.unmodifiableSet(changed);
+		return g;
+	}
+
+	/**
+	 * Returns the namespaces of the documents that changed before the last
+	 * {@link #getGrammars()} call. The set contains <code>null</code> if all
+	 * namespaces were parsed.
+	 * 
+	 * @return changed namespaces
+	 */
+	public synchronized Set<String> getChangedNamespaces() {
+		return changedNamespaces;
+	}
+
+	private static void addChangedNamespaces(Map<String, SchemaDocument> docs,
+			Map<String, SchemaDocument> otherDocs, Set<String> changed) {
+		for (Map.Entry<String, SchemaDocument> e : docs.entrySet()) {
+			SchemaDocument doc = e.getValue();
+			if (!doc.equals(otherDocs.get(e.getKey()))) {
+				changed.add(doc.namespace);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.datatype.Datatype;
+
+/**
+ * Bounded pool of datatypes shared by grammar builds. Datatypes are keyed
+ * structurally, i.e., by schema type, base datatype, variety, facets
+ * (including enumeration values and patterns) and annotations of the simple
+ * type definition. Equal anonymous types of different schemas then share one
+ * datatype instance and its enumeration values and character sets. The least
+ * recently used entry is evicted once the configured number of entries is
+ * exceeded.
+ * 
+ * <p>
+ * Only datatypes whose schema type context and base (or list item) datatype
+ * are shared XML Schema built-in types are added, i.e., anonymous
+ * restrictions and lists of built-in types. Factories with an interner share
+ * the built-in type grammars for that purpose (see
+ * {@link GrammarFactory#setDatatypeInterner(DatatypeInterner)}). Datatypes of
+ * named or derived user-defined types refer to the schema type and datatype
+ * contexts of their build and are interned within their build only, so that
+ * the interner does not keep the grammars of a build alive.
+ * </p>
+ * 
+ * <p>
+ * An interner instance is thread-safe and may be shared by several
+ * <code>GrammarFactory</code> instances.
+ * </p>
+ * 
+ * @see GrammarFactory#setDatatypeInterner(DatatypeInterner)
+ */
+
+public class DatatypeInterner {
+
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 4096;
+
+	protected final int maximumEntries;
+
+	protected final Map<DatatypeKey, Datatype> entries;
+
+	protected DatatypeInterner(int maximumEntries) {
+		if (maximumEntries < 1) {
+			throw new IllegalArgumentException(
+					"Datatype interner requires at least one entry, "
+							+ maximumEntries);
+		}
+		this.maximumEntries = maximumEntries;
+		// access-order for LRU eviction
+		this.entries = new LinkedHashMap<DatatypeKey, Datatype>(16, 0.75f,
+				true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<DatatypeKey, Datatype> eldest) {
+				return size() > DatatypeInterner.this.maximumEntries;
+			}
+		};
+	}
+
+	/**
+	 * Create datatype interner instance holding up to
+	 * {@link #DEFAULT_MAXIMUM_ENTRIES} datatypes.
+	 * 
+	 * @return DatatypeInterner
+	 */
+	public static DatatypeInterner newInstance() {
+		return new DatatypeInterner(DEFAULT_MAXIMUM_ENTRIES);
+	}
+
+	/**
+	 * Create datatype interner instance.
+	 * 
+	 * @param maximumEntries
+	 *            number of datatypes kept before evicting the least recently
+	 *            used one
+	 * @return DatatypeInterner
+	 */
+	public static DatatypeInterner newInstance(int maximumEntries) {
+		return new DatatypeInterner(maximumEntries);
+	}
+
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	/*
+	 * Returns the datatype known for the key or registers the given one.
+	 */
+	synchronized Datatype intern(DatatypeKey key, Datatype datatype) {
+		Datatype interned = entries.get(key);
+		if (interned == null) {
+			entries.put(key, datatype);
+			interned = datatype;
+		}
+		return interned;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/*
+	 * Structural key of a datatype. Schema type context, base and list item
+	 * datatype are compared by identity, the facets by their lexical values.
+	 */
+	static final class DatatypeKey {
+		final Object schemaType;
+		final Datatype baseDatatype;
+		final Datatype itemDatatype;
+		final String facets;
+		final int hash;
+
+		DatatypeKey(Object schemaType, Datatype baseDatatype,
+				Datatype itemDatatype, String facets) {
+			this.schemaType = schemaType;
+			this.baseDatatype = baseDatatype;
+			this.itemDatatype = itemDatatype;
+			this.facets = facets;
+			int h = System.identityHashCode(schemaType);
+			h = 31 * h + System.identityHashCode(baseDatatype);
+			h = 31 * h + System.identityHashCode(itemDatatype);
+			this.hash = 31 * h + facets.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof DatatypeKey)) {
+				return false;
+			}
+			DatatypeKey other = (DatatypeKey) o;
+			return schemaType == other.schemaType
+					&& baseDatatype == other.baseDatatype
+					&& itemDatatype == other.itemDatatype
+					&& facets.equals(other.facets);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
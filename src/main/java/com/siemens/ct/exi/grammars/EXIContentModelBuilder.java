@@ -26,17 +26,30 @@ package com.siemens.ct.exi.grammars;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import org.apache.xerces.impl.xs.SchemaGrammar;
 import org.apache.xerces.impl.xs.SubstitutionGroupHandler;
 import org.apache.xerces.impl.xs.XMLSchemaLoader;
 import org.apache.xerces.impl.xs.XSComplexTypeDecl;
+import org.apache.xerces.impl.xs.XSElementDecl;
+import org.apache.xerces.impl.xs.XSElementDeclHelper;
+import org.apache.xerces.impl.xs.XSModelImpl;
 import org.apache.xerces.impl.xs.models.CMBuilder;
 import org.apache.xerces.impl.xs.models.CMNodeFactory;
 import org.apache.xerces.impl.xs.models.XSCMValidator;
@@ -61,6 +74,7 @@ import org.apache.xerces.xs.XSObject;
 import org.apache.xerces.xs.XSObjectList;
 import org.apache.xerces.xs.XSParticle;
 import org.apache.xerces.xs.XSTerm;
+import org.apache.xerces.xs.XSTypeDefinition;
 import org.apache.xerces.xs.XSWildcard;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -115,18 +129,303 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 	// pool for element-declaration of StartElement events
 	protected Map<XSElementDeclaration, StartElement> elementPool;
 
+	// optional pool of parsed XML Schema grammars
+	protected SchemaGrammarPool schemaGrammarPool;
+
+	// optional pool for exploring content models in parallel
+	protected ForkJoinPool forkJoinPool;
+
+	// order in which content model states are explored
+	protected ContentModelTraversal contentModelTraversal = ContentModelTraversal.DEPTH_FIRST;
+
+	// substitution group index of the current XSModel (created on demand)
+	protected Map<XSElementDeclaration, List<XSElementDeclaration>> substitutionGroups;
+
+	// content model (particle term & occurrences, mixed) --> content grammar
+	protected Map<ContentModelKey, SchemaInformedGrammar> contentModelGrammars;
+
+	// content model --> explored up-front (parallel mode)
+	protected Map<ContentModelKey, CMGraph> exploredContentModels;
+
+	// receives phase timings and counters
+	protected GrammarBuildListener grammarBuildListener = GrammarBuildListener.NO_OP;
+
+	// counters of the current build (indexed by BuildCounter ordinal)
+	protected final long[] buildCounters = new long[BuildCounter.values().length];
+
+	// phase durations of the current build (indexed by BuildPhase ordinal)
+	protected final long[] buildPhaseNanos = new long[BuildPhase.values().length];
+
+	// build budgets, 0 means unlimited
+	protected int maximumContentModelStates;
+	protected long maximumProductions;
+	protected long maximumBuildTime;
+
+	// relaxed content grammar instead of failing when a budget is exceeded
+	protected boolean relaxedContentModels;
+
+	// System.nanoTime() deadline of the running build (time limit only)
+	protected long buildDeadline;
+	protected boolean buildTimeLimited;
+
 	public EXIContentModelBuilder() {
 		super(new CMNodeFactory());
 	}
 
+	/**
+	 * Sets the pool of parsed XML Schema grammars used by subsequent
+	 * <code>loadGrammars</code> calls.
+	 * 
+	 * @param schemaGrammarPool
+	 *            grammar pool or <code>null</code> to parse every namespace
+	 */
+	public void setSchemaGrammarPool(SchemaGrammarPool schemaGrammarPool) {
+		this.schemaGrammarPool = schemaGrammarPool;
+	}
+
+	public SchemaGrammarPool getSchemaGrammarPool() {
+		return schemaGrammarPool;
+	}
+
+	/**
+	 * Sets the fork-join pool used to explore the content models of complex
+	 * types in parallel. Grammars are still created sequentially so that the
+	 * result is identical to the sequential build.
+	 * 
+	 * @param forkJoinPool
+	 *            pool or <code>null</code> for sequential builds
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	/**
+	 * Sets the order in which the states of a content model are explored.
+	 * Both orders create the same grammar states and productions.
+	 * 
+	 * @param contentModelTraversal
+	 *            depth-first (default) or breadth-first
+	 */
+	public void setContentModelTraversal(
+			ContentModelTraversal contentModelTraversal) {
+		if (contentModelTraversal == null) {
+			throw new IllegalArgumentException(
+					"Content model traversal must not be null");
+		}
+		this.contentModelTraversal = contentModelTraversal;
+	}
+
+	public ContentModelTraversal getContentModelTraversal() {
+		return contentModelTraversal;
+	}
+
+	/**
+	 * Sets the listener receiving phase timings and counters of subsequent
+	 * builds.
+	 * 
+	 * @param grammarBuildListener
+	 *            listener, {@link GrammarBuildListener#NO_OP} by default
+	 */
+	public void setGrammarBuildListener(
+			GrammarBuildListener grammarBuildListener) {
+		if (grammarBuildListener == null) {
+			throw new IllegalArgumentException(
+					"Grammar build listener must not be null");
+		}
+		this.grammarBuildListener = grammarBuildListener;
+	}
+
+	public GrammarBuildListener getGrammarBuildListener() {
+		return grammarBuildListener;
+	}
+
+	/**
+	 * Limits the number of states explored per content model. Nested bounded
+	 * repetitions (e.g. maxOccurs="100" within maxOccurs="100") can otherwise
+	 * create millions of states.
+	 * 
+	 * @param maximumContentModelStates
+	 *            states per content model or 0 for no limit (default)
+	 */
+	public void setMaximumContentModelStates(int maximumContentModelStates) {
+		if (maximumContentModelStates < 0) {
+			throw new IllegalArgumentException(
+					"Negative content model state limit, "
+							+ maximumContentModelStates);
+		}
+		this.maximumContentModelStates = maximumContentModelStates;
+	}
+
+	public int getMaximumContentModelStates() {
+		return maximumContentModelStates;
+	}
+
+	/**
+	 * Limits the total number of productions of content model and attribute
+	 * use grammars (see {@link BuildCounter#PRODUCTIONS}). Content models
+	 * that would pass the limit are handled according to
+	 * {@link #setRelaxedContentModels(boolean)}, the build fails as soon as
+	 * the limit is passed nevertheless.
+	 * 
+	 * @param maximumProductions
+	 *            productions per build or 0 for no limit (default)
+	 */
+	public void setMaximumProductions(long maximumProductions) {
+		if (maximumProductions < 0) {
+			throw new IllegalArgumentException("Negative production limit, "
+					+ maximumProductions);
+		}
+		this.maximumProductions = maximumProductions;
+	}
+
+	public long getMaximumProductions() {
+		return maximumProductions;
+	}
+
+	/**
+	 * Limits the wall-clock time spent to translate the XML Schema model into
+	 * grammars (schema loading excluded). The build fails as soon as a
+	 * content model is reached after the limit, also in relaxed mode (see
+	 * {@link #setRelaxedContentModels(boolean)}).
+	 * 
+	 * @param maximumBuildTime
+	 *            milliseconds or 0 for no limit (default)
+	 */
+	public void setMaximumBuildTime(long maximumBuildTime) {
+		if (maximumBuildTime < 0) {
+			throw new IllegalArgumentException("Negative build time limit, "
+					+ maximumBuildTime);
+		}
+		this.maximumBuildTime = maximumBuildTime;
+	}
+
+	public long getMaximumBuildTime() {
+		return maximumBuildTime;
+	}
+
+	/**
+	 * Content models exceeding the content model state or production budget
+	 * get a relaxed content grammar instead of failing the build. The build
+	 * time limit is never relaxed. The relaxed grammar has a single state
+	 * accepting the elements and wildcards of the content model in any order
+	 * and number, followed by EE.
+	 * 
+	 * <p>
+	 * Note: Relaxed grammars deviate from the EXI specification. Encoder and
+	 * decoder have to use grammars built with the same budgets.
+	 * </p>
+	 * 
+	 * @param relaxedContentModels
+	 *            relax content models instead of failing
+	 */
+	public void setRelaxedContentModels(boolean relaxedContentModels) {
+		this.relaxedContentModels = relaxedContentModels;
+	}
+
+	public boolean isRelaxedContentModels() {
+		return relaxedContentModels;
+	}
+
+	protected final void count(BuildCounter counter) {
+		buildCounters[counter.ordinal()]++;
+	}
+
+	protected final void count(BuildCounter counter, long n) {
+		buildCounters[counter.ordinal()] += n;
+	}
+
+	/*
+	 * Phases are only timed if a listener receives the timings.
+	 */
+	protected final long phaseStart() {
+		return grammarBuildListener == GrammarBuildListener.NO_OP ? 0L
+				: System.nanoTime();
+	}
+
+	protected final void addPhaseTime(BuildPhase phase, long start) {
+		if (grammarBuildListener != GrammarBuildListener.NO_OP) {
+			buildPhaseNanos[phase.ordinal()] += System.nanoTime() - start;
+		}
+	}
+
+	protected void startBuildClock() {
+		buildTimeLimited = maximumBuildTime > 0;
+		buildDeadline = System.nanoTime() + maximumBuildTime * 1000000L;
+	}
+
+	protected void stopBuildClock() {
+		buildTimeLimited = false;
+	}
+
+	protected boolean isBuildTimeExceeded() {
+		return buildTimeLimited && System.nanoTime() - buildDeadline > 0;
+	}
+
+	/**
+	 * Fails the build if the production limit has been passed.
+	 * 
+	 * @param ctd
+	 *            complex type translated last
+	 * @throws EXIException
+	 *             production limit exceeded
+	 */
+	protected void checkProductionBudget(XSComplexTypeDefinition ctd)
+			throws EXIException {
+		if (maximumProductions > 0
+				&& buildCounters[BuildCounter.PRODUCTIONS.ordinal()] > maximumProductions) {
+			throw new EXIException("Grammars exceed the limit of "
+					+ maximumProductions + " productions at "
+					+ getTypeName(ctd));
+		}
+	}
+
+	protected static String getTypeName(XSComplexTypeDefinition ctd) {
+		// Xerces names anonymous types after their element
+		String name = ctd instanceof XSComplexTypeDecl ? ((XSComplexTypeDecl) ctd)
+				.getTypeName() : ctd.getName();
+		return "complex type {" + ctd.getNamespace() + "}" + name;
+	}
+
+	/**
+	 * Reports the phase timings and counters of the current build to the
+	 * grammar build listener.
+	 */
+	protected void reportBuild() {
+		if (grammarBuildListener == GrammarBuildListener.NO_OP) {
+			return;
+		}
+		BuildPhase[] phases = BuildPhase.values();
+		for (int i = 0; i < phases.length; i++) {
+			grammarBuildListener.phaseFinished(phases[i], buildPhaseNanos[i]);
+		}
+		BuildCounter[] counters = BuildCounter.values();
+		Map<BuildCounter, Long> m = new EnumMap<BuildCounter, Long>(
+				BuildCounter.class);
+		for (int i = 0; i < counters.length; i++) {
+			m.put(counters[i], buildCounters[i]);
+		}
+		grammarBuildListener.buildFinished(Collections.unmodifiableMap(m));
+	}
+
 	protected void initOnce() {
 		elementPool = new HashMap<XSElementDeclaration, StartElement>();
+		contentModelGrammars = new HashMap<ContentModelKey, SchemaInformedGrammar>();
 		schemaParsingErrors = new ArrayList<String>();
 	}
 
 	protected void initEachRun() {
 		elementPool.clear();
+		contentModelGrammars.clear();
+		substitutionGroups = null;
+		exploredContentModels = null;
 		schemaParsingErrors.clear();
+		Arrays.fill(buildCounters, 0L);
+		Arrays.fill(buildPhaseNanos, 0L);
+		stopBuildClock();
 	}
 
 	public void loadGrammars(XMLInputSource xsdSource) throws EXIException {
@@ -137,6 +436,7 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 			XMLEntityResolver entityResolver) throws EXIException {
 		try {
 			initEachRun();
+			long start = phaseStart();
 
 			// load XSD schema & get XSModel
 			XMLSchemaLoader sl = new XMLSchemaLoader();
@@ -144,6 +444,10 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 				sl.setEntityResolver(entityResolver);
 			}
 			sl.setErrorHandler(this);
+			if (schemaGrammarPool != null) {
+				sl.setProperty(XMLSchemaLoader.XMLGRAMMAR_POOL,
+						schemaGrammarPool.getGrammarPool(entityResolver));
+			}
 
 			SchemaGrammar g = (SchemaGrammar) sl.loadGrammar(xsdSource);
 
@@ -159,12 +463,45 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 			// subGroupHandler = new SubstitutionGroupHandler(grammarBucket);
 			// Xerces Version 2.11.0
 			subGroupHandler = new SubstitutionGroupHandler(sl);
+
+			addPhaseTime(BuildPhase.SCHEMA_LOAD, start);
 		} catch (Exception e) {
 			throw new EXIException("XML Schema document ("
 					+ xsdSource.getSystemId() + ") not found.", e);
 		}
 	}
 
+	/**
+	 * Uses an already existing XML Schema model instead of parsing the schema
+	 * again. The model has to be created by Xerces (e.g., by
+	 * <code>XMLSchemaLoader</code>).
+	 * 
+	 * @param xsModel
+	 *            XML Schema model
+	 * @throws EXIException
+	 *             EXI exception, e.g., if the model is not a Xerces model
+	 */
+	public void loadGrammars(final XSModel xsModel) throws EXIException {
+		if (!(xsModel instanceof XSModelImpl)) {
+			throw new EXIException("XML Schema model (XSModel) "
+					+ (xsModel == null ? null : xsModel.getClass().getName())
+					+ " is not supported, a Xerces model is required.");
+		}
+
+		initEachRun();
+
+		this.xsModel = xsModel;
+
+		// global element lookup of the given model
+		subGroupHandler = new SubstitutionGroupHandler(
+				new XSElementDeclHelper() {
+					public XSElementDecl getGlobalElementDecl(QName element) {
+						return (XSElementDecl) xsModel.getElementDeclaration(
+								element.localpart, element.uri);
+					}
+				});
+	}
+
 	public void loadXSDTypesOnlyGrammars() throws EXIException {
 		String emptySchema = "<schema xmlns='http://www.w3.org/2001/XMLSchema' /> ";
 		Reader r = new StringReader(emptySchema);
@@ -233,8 +570,8 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 	// // return super.createAllCM(particle);;
 	// }
 
-	private static SchemaInformedGrammar addNewState(
-			Map<CMState, SchemaInformedGrammar> states, CMState key,
+	private SchemaInformedGrammar addNewState(
+			CMStateMap<SchemaInformedGrammar> states, CMState key,
 			boolean isMixedContent) {
 		SchemaInformedGrammar val = new SchemaInformedElement();
 		// is end
@@ -245,7 +582,8 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 		if (isMixedContent) {
 			val.addProduction(CHARACTERS_GENERIC, val);
 		}
-		states.put(key, val);
+		count(BuildCounter.PRODUCTIONS, val.getNumberOfEvents());
+		states.putIfAbsent(key, val);
 
 		return val;
 	}
@@ -283,6 +621,25 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 
 	protected SchemaInformedGrammar handleParticle(XSComplexTypeDefinition ctd,
 			boolean isMixedContent) throws EXIException {
+		// types referring to the same model group (or base type particle)
+		// share the content grammar
+		ContentModelKey key = new ContentModelKey(ctd.getParticle(),
+				isMixedContent);
+		SchemaInformedGrammar ruleContent = contentModelGrammars.get(key);
+		count(BuildCounter.CONTENT_MODEL_LOOKUPS);
+		if (ruleContent == null) {
+			ruleContent = translateParticle(ctd, isMixedContent);
+			contentModelGrammars.put(key, ruleContent);
+		} else {
+			count(BuildCounter.CONTENT_MODEL_HITS);
+		}
+
+		return ruleContent;
+	}
+
+	private SchemaInformedGrammar translateParticle(
+			XSComplexTypeDefinition ctd, boolean isMixedContent)
+			throws EXIException {
 
 		XSParticle xsParticle = ctd.getParticle();
 		XSTerm xsTerm = xsParticle.getTerm();
@@ -315,36 +672,140 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 									+ tt);
 				}
 			}
+			count(BuildCounter.PRODUCTIONS, allRule.getNumberOfEvents());
 
 			return allRule;
 		} else {
 			// complex types other than xsd:all model groups
-			XSCMValidator xscmVal = getContentModel((XSComplexTypeDecl) ctd,
-					forUPA);
+			// exploration does not depend on mixed content
+			CMGraph cmGraph = exploredContentModels == null ? null
+					: exploredContentModels.get(new ContentModelKey(
+							ctd.getParticle(), false));
+			if (cmGraph == null) {
+				checkBuildTime(ctd);
+				cmGraph = exploreContentModel(ctd, this);
+			}
+			// an exploration stopped by the clock is never relaxed
+			checkBuildTime(ctd);
+			count(BuildCounter.CONTENT_MODEL_STATES, cmGraph.states);
+
+			String budgetExceeded = cmGraph.budgetExceeded;
+			if (budgetExceeded == null
+					&& maximumProductions > 0
+					&& buildCounters[BuildCounter.PRODUCTIONS.ordinal()]
+							+ cmGraph.transitions.size() > maximumProductions) {
+				budgetExceeded = "the limit of " + maximumProductions
+						+ " productions";
+			}
+			if (budgetExceeded != null) {
+				return handleBudgetExceeded(ctd, isMixedContent,
+						budgetExceeded);
+			}
 
-			int[] state = xscmVal.startContentModel();
-			@SuppressWarnings("unchecked")
-			List<XSObject> possibleElements = xscmVal.whatCanGoHere(state);
+			return translateContentModel(cmGraph, isMixedContent);
+		}
+	}
 
-			// elements that have a given maxOccurs unbounded
-			List<XSElementDeclaration> elementsMaxOccursUnbounded = new ArrayList<XSElementDeclaration>();
-			getMaxOccursUnboundedElements(elementsMaxOccursUnbounded,
-					xsParticle);
+	private String getBuildTimeExceeded() {
+		return "the build time limit of " + maximumBuildTime + " ms";
+	}
 
-			boolean isEnd = xscmVal.endContentModel(state);
-			int[] occurenceInfo = xscmVal.occurenceInfo(state);
+	/*
+	 * Fails with a diagnostic naming the type once the build time limit has
+	 * been passed, regardless of relaxed mode.
+	 */
+	private void checkBuildTime(XSComplexTypeDefinition ctd)
+			throws EXIException {
+		if (isBuildTimeExceeded()) {
+			throw new EXIException("Content model of " + getTypeName(ctd)
+					+ " exceeds " + getBuildTimeExceeded());
+		}
+	}
 
-			CMState startState = new CMState(possibleElements, isEnd, state,
-					elementsMaxOccursUnbounded, occurenceInfo);
-			LOGGER.debug("Start = {}", startState);
+	/*
+	 * Fails with a diagnostic naming the type or, in relaxed mode, creates a
+	 * relaxed content grammar.
+	 */
+	private SchemaInformedGrammar handleBudgetExceeded(
+			XSComplexTypeDefinition ctd, boolean isMixedContent,
+			String budgetExceeded) throws EXIException {
+		if (!relaxedContentModels) {
+			throw new EXIException("Content model of " + getTypeName(ctd)
+					+ " exceeds " + budgetExceeded);
+		}
+		LOGGER.warn("Content model of {} exceeds {}, relaxed content grammar used",
+				getTypeName(ctd), budgetExceeded);
+		return translateRelaxedContentModel(ctd.getParticle(), isMixedContent);
+	}
 
-			Map<CMState, SchemaInformedGrammar> knownStates = new HashMap<CMState, SchemaInformedGrammar>();
-			addNewState(knownStates, startState, isMixedContent);
-			handleStateEntries(possibleElements, xscmVal, state, startState,
-					knownStates, isMixedContent, elementsMaxOccursUnbounded);
+	/**
+	 * Creates a single state content grammar accepting all elements and
+	 * wildcards of the particle in any order and number, and EE.
+	 * 
+	 * @param xsParticle
+	 *            content model particle
+	 * @param isMixedContent
+	 *            mixed content
+	 * @return relaxed content grammar
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	protected SchemaInformedGrammar translateRelaxedContentModel(
+			XSParticle xsParticle, boolean isMixedContent) throws EXIException {
+		SchemaInformedGrammar relaxedRule = new SchemaInformedElement();
+		relaxedRule.addTerminalProduction(END_ELEMENT);
+		if (isMixedContent) {
+			relaxedRule.addProduction(CHARACTERS_GENERIC, relaxedRule);
+		}
 
-			return knownStates.get(startState);
+		// qualified names and namespaces handled already
+		Set<String> handled = new HashSet<String>();
+		Set<XSObject> handledTerms = new HashSet<XSObject>();
+		Deque<XSTerm> terms = new ArrayDeque<XSTerm>();
+		terms.push(xsParticle.getTerm());
+		while (!terms.isEmpty()) {
+			XSTerm xsTerm = terms.pop();
+			if (!handledTerms.add(xsTerm)) {
+				continue;
+			}
+			if (xsTerm.getType() == XSConstants.MODEL_GROUP) {
+				XSObjectList particles = ((XSModelGroup) xsTerm).getParticles();
+				// document order
+				for (int i = particles.getLength() - 1; i >= 0; i--) {
+					terms.push(((XSParticle) particles.item(i)).getTerm());
+				}
+			} else if (xsTerm.getType() == XSConstants.ELEMENT_DECLARATION) {
+				List<XSElementDeclaration> elements = getPossibleElementDeclarations((XSElementDeclaration) xsTerm);
+				for (XSElementDeclaration el : elements) {
+					if (handled.add("{" + el.getNamespace() + "}"
+							+ el.getName())) {
+						relaxedRule.addProduction(
+								translatElementDeclarationToFSA(el),
+								relaxedRule);
+					}
+				}
+			} else {
+				XSWildcard wc = (XSWildcard) xsTerm;
+				if (wc.getConstraintType() == XSWildcard.NSCONSTRAINT_LIST) {
+					StringList sl = wc.getNsConstraintList();
+					for (int i = 0; i < sl.getLength(); i++) {
+						String namespaceURI = sl.item(i);
+						if (handled.add(namespaceURI + ":*")) {
+							addNamespaceStringEntry(namespaceURI);
+							relaxedRule.addProduction(
+									createStartElementNS(namespaceURI),
+									relaxedRule);
+						}
+					}
+				} else if (handled.add("*")) {
+					relaxedRule.addProduction(START_ELEMENT_GENERIC,
+							relaxedRule);
+				}
+			}
 		}
+		count(BuildCounter.PRODUCTIONS, relaxedRule.getNumberOfEvents());
+
+		return relaxedRule;
 	}
 
 	abstract protected StartElementNS createStartElementNS(String uri);
@@ -352,150 +813,333 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 	abstract protected StartElement translatElementDeclarationToFSA(
 			XSElementDeclaration xsElementDeclaration) throws EXIException;
 
-	private void handleStateEntries(List<XSObject> possibleElements,
-			XSCMValidator xscmVal, int[] originalState, CMState startState,
-			Map<CMState, SchemaInformedGrammar> knownStates,
-			boolean isMixedContent,
-			List<XSElementDeclaration> elementsMaxOccursUnbounded)
-			throws EXIException {
-		assert (knownStates.containsKey(startState));
+	/**
+	 * Explores the content models of all complex types of the schema on the
+	 * fork-join pool before any grammar is translated. The explored state
+	 * transitions are picked up by
+	 * {@link #handleParticle(XSComplexTypeDefinition, boolean)} and
+	 * translated in the same order as in sequential mode.
+	 * 
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	protected void exploreContentModels() throws EXIException {
+		List<XSComplexTypeDefinition> ctds = new ArrayList<XSComplexTypeDefinition>();
+		Set<XSTypeDefinition> handledTypes = new HashSet<XSTypeDefinition>();
+		Set<ContentModelKey> handledContentModels = new HashSet<ContentModelKey>();
+		XSNamedMap types = xsModel.getComponents(XSConstants.TYPE_DEFINITION);
+		for (int i = 0; i < types.getLength(); i++) {
+			collectComplexTypes((XSTypeDefinition) types.item(i),
+					handledTypes, handledContentModels, ctds);
+		}
+		XSNamedMap elements = xsModel
+				.getComponents(XSConstants.ELEMENT_DECLARATION);
+		for (int i = 0; i < elements.getLength(); i++) {
+			collectComplexTypes(((XSElementDeclaration) elements.item(i))
+					.getTypeDefinition(), handledTypes, handledContentModels,
+					ctds);
+		}
+
+		List<Callable<CMGraph>> tasks = new ArrayList<Callable<CMGraph>>();
+		for (final XSComplexTypeDefinition ctd : ctds) {
+			tasks.add(new Callable<CMGraph>() {
+				public CMGraph call() {
+					// CMBuilder is not thread-safe
+					return exploreContentModel(ctd, new CMBuilder(
+							new CMNodeFactory()));
+				}
+			});
+		}
+
+		exploredContentModels = new HashMap<ContentModelKey, CMGraph>();
+		List<Future<CMGraph>> results = forkJoinPool.invokeAll(tasks);
+		try {
+			for (int i = 0; i < ctds.size(); i++) {
+				exploredContentModels.put(new ContentModelKey(ctds.get(i)
+						.getParticle(), false), results.get(i).get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EXIException("Interrupted while exploring content models.",
+					e);
+		} catch (ExecutionException e) {
+			throw new EXIException(e.getCause());
+		}
+	}
 
-		for (int ind = 0; ind < possibleElements.size(); ind++) {
-			XSObject xs = possibleElements.get(ind);
-			// copy state since it gets modified
-			int[] cstate = new int[originalState.length];
-			System.arraycopy(originalState, 0, cstate, 0, originalState.length);
+	private void collectComplexTypes(XSTypeDefinition td,
+			Set<XSTypeDefinition> handledTypes,
+			Set<ContentModelKey> handledContentModels,
+			List<XSComplexTypeDefinition> ctds) {
+		if (td.getTypeCategory() == XSTypeDefinition.COMPLEX_TYPE
+				&& handledTypes.add(td)) {
+			XSComplexTypeDefinition ctd = (XSComplexTypeDefinition) td;
+			XSParticle particle = ctd.getParticle();
+			if (particle != null) {
+				XSTerm term = particle.getTerm();
+				// exploration does not depend on mixed content
+				if (!(term instanceof XSModelGroup && ((XSModelGroup) term)
+						.getCompositor() == XSModelGroup.COMPOSITOR_ALL)
+						&& handledContentModels.add(new ContentModelKey(
+								particle, false))) {
+					ctds.add(ctd);
+				}
+				collectComplexTypes(term, handledTypes, handledContentModels,
+						ctds);
+			}
+		}
+	}
 
-			if (xs.getType() == XSConstants.ELEMENT_DECLARATION) {
-				// make transition
-				XSElementDeclaration nextEl = (XSElementDeclaration) xs;
-				QName qname = new QName(null, nextEl.getName(), null,
-						nextEl.getNamespace());
+	private void collectComplexTypes(XSTerm term,
+			Set<XSTypeDefinition> handledTypes,
+			Set<ContentModelKey> handledContentModels,
+			List<XSComplexTypeDefinition> ctds) {
+		if (term.getType() == XSConstants.ELEMENT_DECLARATION) {
+			collectComplexTypes(
+					((XSElementDeclaration) term).getTypeDefinition(),
+					handledTypes, handledContentModels, ctds);
+		} else if (term.getType() == XSConstants.MODEL_GROUP) {
+			XSObjectList particles = ((XSModelGroup) term).getParticles();
+			for (int i = 0; i < particles.getLength(); i++) {
+				XSParticle particle = (XSParticle) particles.item(i);
+				collectComplexTypes(particle.getTerm(), handledTypes,
+						handledContentModels, ctds);
+			}
+		}
+	}
 
-				Object nextRet = xscmVal.oneTransition(qname, cstate,
-						subGroupHandler);
+	/*
+	 * Walks the content model automaton of the given type and records all
+	 * transitions. Does not touch shared builder state other than the
+	 * (read-only) substitution group handler.
+	 */
+	protected CMGraph exploreContentModel(XSComplexTypeDefinition ctd,
+			CMBuilder cmBuilder) {
+		XSParticle xsParticle = ctd.getParticle();
+		XSCMValidator xscmVal = cmBuilder.getContentModel(
+				(XSComplexTypeDecl) ctd, forUPA);
+
+		int[] state = xscmVal.startContentModel();
+		@SuppressWarnings("unchecked")
+		List<XSObject> possibleElements = xscmVal.whatCanGoHere(state);
 
-				// check whether right transition was taken
-				assert (xs == nextRet);
+		// elements that have a given maxOccurs unbounded
+		List<XSElementDeclaration> elementsMaxOccursUnbounded = new ArrayList<XSElementDeclaration>();
+		getMaxOccursUnboundedElements(elementsMaxOccursUnbounded, xsParticle);
 
-				// next possible state
-				@SuppressWarnings("unchecked")
-				List<XSObject> nextPossibleElements = xscmVal
-						.whatCanGoHere(cstate);
-				boolean isEnd = xscmVal.endContentModel(cstate);
-				int[] occurenceInfo = xscmVal.occurenceInfo(cstate);
-				// int[] occs2 = xscmVal.occurenceInfo(originalState);
+		boolean isEnd = xscmVal.endContentModel(state);
+		int[] occurenceInfo = xscmVal.occurenceInfo(state);
 
-				CMState nextState = new CMState(nextPossibleElements, isEnd,
-						cstate, elementsMaxOccursUnbounded, occurenceInfo);
+		CMState startState = new CMState(possibleElements, isEnd, state,
+				elementsMaxOccursUnbounded, occurenceInfo);
+		LOGGER.debug("Start = {}", startState);
 
-				printTransition(startState, xs, nextState);
+		CMGraph cmGraph = new CMGraph(startState);
+		CMStateMap<CMState> knownStates = new CMStateMap<CMState>();
+		knownStates.putIfAbsent(startState, startState);
+		cmGraph.budgetExceeded = handleStateEntries(xscmVal, startState,
+				knownStates, elementsMaxOccursUnbounded, cmGraph.transitions);
+		cmGraph.states = knownStates.size();
 
+		return cmGraph;
+	}
+
+	/*
+	 * Creates the grammar states of an explored content model. Events are
+	 * created in the order the transitions were recorded.
+	 */
+	protected SchemaInformedGrammar translateContentModel(CMGraph cmGraph,
+			boolean isMixedContent) throws EXIException {
+		CMStateMap<SchemaInformedGrammar> knownStates = new CMStateMap<SchemaInformedGrammar>();
+		addNewState(knownStates, cmGraph.startState, isMixedContent);
+
+		for (CMTransition t : cmGraph.transitions) {
+			if (t.term.getType() == XSConstants.ELEMENT_DECLARATION) {
 				// retrieve list of possible elements (e.g. substitution group
 				// elements)
-				List<XSElementDeclaration> elements = getPossibleElementDeclarations(nextEl);
+				List<XSElementDeclaration> elements = getPossibleElementDeclarations((XSElementDeclaration) t.term);
 				assert (elements.size() > 0);
-				boolean isNewState = false;
-
 				for (int i = 0; i < elements.size(); i++) {
 					XSElementDeclaration nextEN = elements.get(i);
-					// Event xsEvent = getStartElement(nextEN);
 					Event xsEvent = translatElementDeclarationToFSA(nextEN);
-					if (i == 0) {
-						// first element tells the right way to proceed
-						isNewState = handleStateEntry(startState, knownStates,
-								xsEvent, nextState, isMixedContent);
-					} else {
-						handleStateEntry(startState, knownStates, xsEvent,
-								nextState, isMixedContent);
-					}
-				}
-
-				if (isNewState) {
-					handleStateEntries(nextPossibleElements, xscmVal, cstate,
-							nextState, knownStates, isMixedContent,
-							elementsMaxOccursUnbounded);
+					handleStateEntry(t.from, knownStates, xsEvent, t.to,
+							isMixedContent);
 				}
-
+			} else if (((XSWildcard) t.term).getConstraintType() == XSWildcard.NSCONSTRAINT_LIST) {
+				addNamespaceStringEntry(t.namespaceURI);
+				Event xsEvent = createStartElementNS(t.namespaceURI);
+				handleStateEntry(t.from, knownStates, xsEvent, t.to,
+						isMixedContent);
 			} else {
-				assert (xs.getType() == XSConstants.WILDCARD);
-				XSWildcard nextWC = ((XSWildcard) xs);
-				short constraintType = nextWC.getConstraintType();
-				if (constraintType == XSWildcard.NSCONSTRAINT_ANY
-						|| constraintType == XSWildcard.NSCONSTRAINT_NOT) {
-					// make transition
-					QName qname = new QName(null, "##wc", null, "");
-					Object nextRet = xscmVal.oneTransition(qname, cstate,
-							subGroupHandler);
-					// check whether right transition was taken
-					assert (xs == nextRet);
-
-					// next possible state
-					@SuppressWarnings("unchecked")
-					List<XSObject> nextPossibleElements = xscmVal
-							.whatCanGoHere(cstate);
-					boolean isEnd = xscmVal.endContentModel(cstate);
-					int[] occurenceInfo = xscmVal.occurenceInfo(cstate);
-					CMState nextState = new CMState(nextPossibleElements,
-							isEnd, cstate, elementsMaxOccursUnbounded,
-							occurenceInfo);
-
-					printTransition(startState, xs, nextState);
-
-					Event xsEvent = START_ELEMENT_GENERIC;
-
-					boolean isNewState = handleStateEntry(startState,
-							knownStates, xsEvent, nextState, isMixedContent);
-					if (isNewState) {
-						handleStateEntries(nextPossibleElements, xscmVal,
-								cstate, nextState, knownStates, isMixedContent,
-								elementsMaxOccursUnbounded);
-					}
+				handleStateEntry(t.from, knownStates, START_ELEMENT_GENERIC,
+						t.to, isMixedContent);
+			}
+		}
 
-				} else {
-					assert (constraintType == XSWildcard.NSCONSTRAINT_LIST);
-					// make transition
-					StringList sl = nextWC.getNsConstraintList();
-					QName qname = new QName(null, "##wc", null, sl.item(0));
-					Object nextRet = xscmVal.oneTransition(qname, cstate,
-							subGroupHandler);
-					assert (xs == nextRet); // check whether right transition
-					// was taken
-
-					// next possible state
-					@SuppressWarnings("unchecked")
-					List<XSObject> nextPossibleElements = xscmVal
-							.whatCanGoHere(cstate);
-					boolean isEnd = xscmVal.endContentModel(cstate);
-					int[] occurenceInfo = xscmVal.occurenceInfo(cstate);
-					CMState nextState = new CMState(nextPossibleElements,
-							isEnd, cstate, elementsMaxOccursUnbounded,
-							occurenceInfo);
-
-					printTransition(startState, xs, nextState);
+		return knownStates.get(cmGraph.startState);
+	}
 
-					for (int i = 0; i < sl.getLength(); i++) {
-						String namespaceURI = sl.item(i);
-						addNamespaceStringEntry(namespaceURI);
-						// Event xsEvent = new StartElementNS(namespaceURI);
-						Event xsEvent = createStartElementNS(namespaceURI);
-						boolean isNewState = handleStateEntry(startState,
-								knownStates, xsEvent, nextState, isMixedContent);
-						if (isNewState) {
-							handleStateEntries(nextPossibleElements, xscmVal,
-									cstate, nextState, knownStates,
-									isMixedContent, elementsMaxOccursUnbounded);
-						}
+	/*
+	 * Explores all states reachable from the start state with an explicit
+	 * worklist (no recursion per state). Depth-first order records the
+	 * transitions in the same order as the former recursive walk. Returns the
+	 * exceeded budget if the exploration was stopped, null otherwise.
+	 */
+	private String handleStateEntries(XSCMValidator xscmVal,
+			CMState startState, CMStateMap<CMState> knownStates,
+			List<XSElementDeclaration> elementsMaxOccursUnbounded,
+			List<CMTransition> transitions) {
+		assert (knownStates.get(startState) != null);
+
+		Deque<CMWorkItem> worklist = new ArrayDeque<CMWorkItem>();
+		worklist.add(new CMWorkItem(startState));
+		int steps = 0;
+
+		if (contentModelTraversal == ContentModelTraversal.BREADTH_FIRST) {
+			while (!worklist.isEmpty()) {
+				CMWorkItem item = worklist.poll();
+				while (item.index < item.cmState.states.size()) {
+					CMWorkItem next = handleStateEntry(item, xscmVal,
+							knownStates, elementsMaxOccursUnbounded,
+							transitions);
+					flushDeferred(item, transitions);
+					if (next != null) {
+						worklist.addLast(next);
+					}
+					String budgetExceeded = getExplorationBudgetExceeded(
+							knownStates, ++steps);
+					if (budgetExceeded != null) {
+						return budgetExceeded;
+					}
+				}
+			}
+		} else {
+			while (!worklist.isEmpty()) {
+				CMWorkItem item = worklist.peek();
+				// transitions postponed by the descent into a new state
+				flushDeferred(item, transitions);
+				if (item.index < item.cmState.states.size()) {
+					CMWorkItem next = handleStateEntry(item, xscmVal,
+							knownStates, elementsMaxOccursUnbounded,
+							transitions);
+					if (next != null) {
+						worklist.push(next);
+					}
+					String budgetExceeded = getExplorationBudgetExceeded(
+							knownStates, ++steps);
+					if (budgetExceeded != null) {
+						return budgetExceeded;
 					}
+				} else {
+					worklist.pop();
 				}
 			}
 		}
+
+		return null;
+	}
+
+	private String getExplorationBudgetExceeded(CMStateMap<CMState> knownStates,
+			int steps) {
+		if (maximumContentModelStates > 0
+				&& knownStates.size() > maximumContentModelStates) {
+			return "the limit of " + maximumContentModelStates
+					+ " content model states";
+		}
+		// clock read every 256 transitions only
+		if ((steps & 0xFF) == 0 && isBuildTimeExceeded()) {
+			return getBuildTimeExceeded();
+		}
+		return null;
+	}
+
+	private static void flushDeferred(CMWorkItem item,
+			List<CMTransition> transitions) {
+		if (item.deferred != null) {
+			transitions.addAll(item.deferred);
+			item.deferred = null;
+		}
+	}
+
+	/*
+	 * Takes the next possible element of the work item and records its
+	 * transition(s). Returns the next state if it has not been seen before.
+	 */
+	private CMWorkItem handleStateEntry(CMWorkItem item,
+			XSCMValidator xscmVal, CMStateMap<CMState> knownStates,
+			List<XSElementDeclaration> elementsMaxOccursUnbounded,
+			List<CMTransition> transitions) {
+		CMState startState = item.cmState;
+		XSObject xs = startState.states.get(item.index++);
+		// copy state since it gets modified
+		int[] cstate = new int[startState.state.length];
+		System.arraycopy(startState.state, 0, cstate, 0, cstate.length);
+
+		QName qname;
+		StringList sl = null;
+		if (xs.getType() == XSConstants.ELEMENT_DECLARATION) {
+			XSElementDeclaration nextEl = (XSElementDeclaration) xs;
+			qname = new QName(null, nextEl.getName(), null,
+					nextEl.getNamespace());
+		} else {
+			assert (xs.getType() == XSConstants.WILDCARD);
+			XSWildcard nextWC = ((XSWildcard) xs);
+			short constraintType = nextWC.getConstraintType();
+			if (constraintType == XSWildcard.NSCONSTRAINT_ANY
+					|| constraintType == XSWildcard.NSCONSTRAINT_NOT) {
+				qname = new QName(null, "##wc", null, "");
+			} else {
+				assert (constraintType == XSWildcard.NSCONSTRAINT_LIST);
+				sl = nextWC.getNsConstraintList();
+				qname = new QName(null, "##wc", null, sl.item(0));
+			}
+		}
+
+		// make transition
+		Object nextRet = xscmVal.oneTransition(qname, cstate, subGroupHandler);
+		// check whether right transition was taken
+		assert (xs == nextRet);
+
+		// next possible state
+		@SuppressWarnings("unchecked")
+		List<XSObject> nextPossibleElements = xscmVal.whatCanGoHere(cstate);
+		boolean isEnd = xscmVal.endContentModel(cstate);
+		int[] occurenceInfo = xscmVal.occurenceInfo(cstate);
+		CMState nextState = new CMState(nextPossibleElements, isEnd, cstate,
+				elementsMaxOccursUnbounded, occurenceInfo);
+
+		printTransition(startState, xs, nextState);
+
+		if (sl == null) {
+			// substitution group elements share the transition
+			transitions.add(new CMTransition(startState, xs, null, nextState));
+			return knownStates.putIfAbsent(nextState, nextState) == null ? new CMWorkItem(
+					nextState) : null;
+		} else {
+			// first namespace decides whether the state is new, the others
+			// follow once the new state has been explored
+			transitions.add(new CMTransition(startState, xs, sl.item(0),
+					nextState));
+			boolean isNewState = knownStates.putIfAbsent(nextState, nextState) == null;
+			List<CMTransition> others = isNewState ? new ArrayList<CMTransition>()
+					: transitions;
+			for (int i = 1; i < sl.getLength(); i++) {
+				others.add(new CMTransition(startState, xs, sl.item(i),
+						nextState));
+			}
+			if (isNewState) {
+				item.deferred = others;
+				return new CMWorkItem(nextState);
+			} else {
+				return null;
+			}
+		}
 	}
 
 	abstract protected void addLocalNameStringEntry(String namespaceURI,
 			String localName);
 
-	abstract protected List<String> addNamespaceStringEntry(String namespaceURI);
+	abstract protected Set<String> addNamespaceStringEntry(String namespaceURI);
 
 	/**
 	 * 
@@ -511,13 +1155,15 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 	 * @return requires further processing of nextState
 	 */
 	private boolean handleStateEntry(CMState startState,
-			Map<CMState, SchemaInformedGrammar> knownStates, Event xsEvent,
+			CMStateMap<SchemaInformedGrammar> knownStates, Event xsEvent,
 			CMState nextState, boolean isMixedContent) {
 		SchemaInformedGrammar startRule = knownStates.get(startState);
 
 		// System.out.println(knownStates);
-		if (knownStates.containsKey(nextState)) {
-			startRule.addProduction(xsEvent, knownStates.get(nextState));
+		SchemaInformedGrammar nextRule = knownStates.get(nextState);
+		count(BuildCounter.PRODUCTIONS);
+		if (nextRule != null) {
+			startRule.addProduction(xsEvent, nextRule);
 			return false;
 		} else {
 			addNewState(knownStates, nextState, isMixedContent);
@@ -536,35 +1182,54 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 	 * 
 	 * @param el
 	 *            element
-	 * @return list of possible elements
+	 * @return unmodifiable list of possible elements
 	 */
 	protected List<XSElementDeclaration> getPossibleElementDeclarations(
 			XSElementDeclaration el) {
+		if (substitutionGroups == null) {
+			substitutionGroups = createSubstitutionGroupIndex();
+		}
 
-		List<XSElementDeclaration> listElements = new ArrayList<XSElementDeclaration>();
+		List<XSElementDeclaration> listElements = substitutionGroups.get(el);
+		if (listElements == null) {
+			// no substitution group head
+			listElements = Collections.singletonList(el);
+		}
 
-		// add element itself
-		listElements.add(el);
+		return listElements;
+	}
+
+	/*
+	 * Substitution group head --> sorted (unmodifiable) list of the head and
+	 * all its members
+	 */
+	protected Map<XSElementDeclaration, List<XSElementDeclaration>> createSubstitutionGroupIndex() {
+		Map<XSElementDeclaration, List<XSElementDeclaration>> index = new HashMap<XSElementDeclaration, List<XSElementDeclaration>>();
 
-		// add possible substitution group elements
 		XSNamedMap globalElements = xsModel
 				.getComponents(XSConstants.ELEMENT_DECLARATION);
 		// Note: no global elements in XSD cause error
-		if (globalElements != null && globalElements.size() > 0) {
-			XSObjectList listSG = xsModel.getSubstitutionGroup(el);
-			if (listSG != null && listSG.getLength() > 0) {
-				for (int i = 0; i < listSG.getLength(); i++) {
-					XSElementDeclaration ed = (XSElementDeclaration) listSG
-							.item(i);
-					listElements.add(ed);
+		if (globalElements != null) {
+			for (int k = 0; k < globalElements.getLength(); k++) {
+				XSElementDeclaration el = (XSElementDeclaration) globalElements
+						.item(k);
+				XSObjectList listSG = xsModel.getSubstitutionGroup(el);
+				if (listSG != null && listSG.getLength() > 0) {
+					List<XSElementDeclaration> listElements = new ArrayList<XSElementDeclaration>(
+							listSG.getLength() + 1);
+					// add element itself
+					listElements.add(el);
+					for (int i = 0; i < listSG.getLength(); i++) {
+						listElements.add((XSElementDeclaration) listSG.item(i));
+					}
+					// sort list
+					Collections.sort(listElements, elementDeclSort);
+					index.put(el, Collections.unmodifiableList(listElements));
 				}
 			}
 		}
 
-		// sort list
-		Collections.sort(listElements, elementDeclSort);
-
-		return listElements;
+		return index;
 	}
 
 	private static void printTransition(CMState startState, XSObject xs,
@@ -613,15 +1278,109 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 		}
 	}
 
+	/*
+	 * Internal Helper Class: content model identity, i.e., the particle term
+	 * (e.g. the model group of a named group) with its occurrences
+	 */
+	static class ContentModelKey {
+		protected final XSTerm term;
+		protected final int minOccurs;
+		protected final int maxOccurs;
+		protected final boolean maxOccursUnbounded;
+		protected final boolean mixedContent;
+
+		public ContentModelKey(XSParticle particle, boolean mixedContent) {
+			this.term = particle.getTerm();
+			this.minOccurs = particle.getMinOccurs();
+			this.maxOccurs = particle.getMaxOccurs();
+			this.maxOccursUnbounded = particle.getMaxOccursUnbounded();
+			this.mixedContent = mixedContent;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof ContentModelKey) {
+				ContentModelKey other = (ContentModelKey) o;
+				return term == other.term && minOccurs == other.minOccurs
+						&& maxOccurs == other.maxOccurs
+						&& maxOccursUnbounded == other.maxOccursUnbounded
+						&& mixedContent == other.mixedContent;
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			int h = System.identityHashCode(term);
+			h = 31 * h + minOccurs;
+			h = 31 * h + maxOccurs;
+			return 2 * h + (mixedContent ? 1 : 0);
+		}
+	}
+
+	/*
+	 * Internal Helper Class: explored content model
+	 */
+	static class CMGraph {
+		protected final CMState startState;
+		// transitions in sequential exploration order
+		protected final List<CMTransition> transitions;
+		// number of distinct states
+		protected int states;
+		// exceeded budget if the exploration was stopped
+		protected String budgetExceeded;
+
+		public CMGraph(CMState startState) {
+			this.startState = startState;
+			this.transitions = new ArrayList<CMTransition>();
+		}
+	}
+
+	static class CMTransition {
+		protected final CMState from;
+		// element declaration or wildcard
+		protected final XSObject term;
+		// namespace of wildcard namespace lists
+		protected final String namespaceURI;
+		protected final CMState to;
+
+		public CMTransition(CMState from, XSObject term, String namespaceURI,
+				CMState to) {
+			this.from = from;
+			this.term = term;
+			this.namespaceURI = namespaceURI;
+			this.to = to;
+		}
+	}
+
+	static class CMWorkItem {
+		protected final CMState cmState;
+		// next possible element to handle
+		protected int index;
+		// transitions to be recorded before continuing with index
+		protected List<CMTransition> deferred;
+
+		public CMWorkItem(CMState cmState) {
+			this.cmState = cmState;
+		}
+	}
+
 	/*
 	 * Internal Helper Class: CMState
 	 */
 	static class CMState {
+		// counter value does not distinguish states
+		static final int ANY_COUNTER = Integer.MIN_VALUE;
+		// counter reached min occurs of an unbounded term
+		static final int MIN_OCCURS_COUNTER = Integer.MIN_VALUE + 1;
+
 		protected final List<XSObject> states;
 		protected final boolean end;
 		protected final int[] state;
 		protected final List<XSElementDeclaration> elementsMaxOccursUnbounded;
 		protected final int[] occurenceInfo;
+		// normalized counter (3rd item of state)
+		protected final int counter;
+		// key combining state ints, end flag and normalized counter
+		protected final long key;
 
 		public CMState(List<XSObject> states, boolean end, int[] state,
 				List<XSElementDeclaration> elementsMaxOccursUnbounded,
@@ -633,56 +1392,52 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 			// copy, may get modified
 			this.state = new int[state.length];
 			System.arraycopy(state, 0, this.state, 0, state.length);
+			assert (state.length > 1);
+
+			// NOTE: 3rd item is counter only!
+			int c = state.length > 2 ? state[2] : 0;
+			if (states.size() == 0) {
+				c = ANY_COUNTER;
+			} else if (hasMaxOccursUnbounded()) {
+				// If an array is returned it will have a
+				// length == 4 and will contain:
+				//
+				// a[0] :: min occurs
+				// a[1] :: max occurs
+				// a[2] :: current value of the counter
+				// a[3] :: identifier for the repeating term
+				if (occurenceInfo == null) {
+					c = ANY_COUNTER;
+				} else if (occurenceInfo[2] >= occurenceInfo[0]) {
+					c = MIN_OCCURS_COUNTER;
+				}
+			}
+			this.counter = c;
+
+			long k = state[0];
+			k = k * 0x9E3779B97F4A7C15L + state[1];
+			k = k * 0x9E3779B97F4A7C15L + counter;
+			k = k * 0x9E3779B97F4A7C15L + states.size();
+			this.key = end ? ~k : k;
+		}
+
+		private boolean hasMaxOccursUnbounded() {
+			for (int i = 0; i < states.size(); i++) {
+				if (elementsMaxOccursUnbounded.contains(states.get(i))) {
+					return true;
+				}
+			}
+			return false;
 		}
 
 		public boolean equals(Object o) {
 			if (o instanceof CMState) {
 				CMState other = (CMState) o;
-				if (end == other.end && states.equals(other.states)) {
-					// return(Arrays.equals(state, other.state)) ;
-					assert (state.length > 1 && other.state.length > 1);
-
-					// NOTE: 3rd item is counter only!
-					if (state[0] == other.state[0]
-							&& state[1] == other.state[1]) {
-						if (states.size() == 0 && other.states.size() == 0) {
-							return true;
-						} else if (state[2] != other.state[2]) {
-							// any element maxOccurs unbounded
-							for (int i = 0; i < states.size(); i++) {
-								XSObject s = states.get(i);
-								if (elementsMaxOccursUnbounded.contains(s)) {
-									// If an array is returned it will have a
-									// length == 4 and will contain:
-									//
-									// a[0] :: min occurs
-									// a[1] :: max occurs
-									// a[2] :: current value of the counter
-									// a[3] :: identifier for the repeating term
-									if (this.occurenceInfo == null) {
-										return true;
-									} else {
-										// int currThis = this.occurenceInfo ==
-										// null ? -1
-										// : this.occurenceInfo[2];
-										// int currOther = other.occurenceInfo
-										// == null ? -1
-										// : other.occurenceInfo[2];
-
-										assert (this.occurenceInfo[0] == other.occurenceInfo[0]);
-										return (this.occurenceInfo[2] >= this.occurenceInfo[0] && other.occurenceInfo[2] >= this.occurenceInfo[0]);
-
-									}
-									// return true;
-								}
-							}
-							return false;
-						} else {
-							return true;
-						}
-					}
-
-				}
+				return key == other.key && end == other.end
+						&& state[0] == other.state[0]
+						&& state[1] == other.state[1]
+						&& counter == other.counter
+						&& states.equals(other.states);
 			}
 			return false;
 		}
@@ -706,7 +1461,81 @@ public abstract class EXIContentModelBuilder extends CMBuilder implements
 		}
 
 		public int hashCode() {
-			return end ? states.hashCode() : -states.hashCode();
+			return (int) (key ^ (key >>> 32));
+		}
+	}
+
+	/*
+	 * Internal Helper Class: open-addressing map for CMState keys. Slots are
+	 * probed by the state key first, so full state comparisons only happen
+	 * for matching keys.
+	 */
+	static class CMStateMap<V> {
+		private long[] keys;
+		private CMState[] states;
+		private Object[] values;
+		private int size;
+
+		public CMStateMap() {
+			keys = new long[16];
+			states = new CMState[16];
+			values = new Object[16];
+		}
+
+		private int indexOf(CMState state) {
+			int mask = states.length - 1;
+			long h = state.key * 0x9E3779B97F4A7C15L;
+			int i = (int) (h >>> 32) & mask;
+			while (states[i] != null
+					&& (keys[i] != state.key || !states[i].equals(state))) {
+				i = (i + 1) & mask;
+			}
+			return i;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V get(CMState state) {
+			return (V) values[indexOf(state)];
+		}
+
+		/*
+		 * Returns the value already associated with an equal state or null if
+		 * the state was added.
+		 */
+		@SuppressWarnings("unchecked")
+		public V putIfAbsent(CMState state, V value) {
+			int i = indexOf(state);
+			if (states[i] != null) {
+				return (V) values[i];
+			}
+			keys[i] = state.key;
+			states[i] = state;
+			values[i] = value;
+			if (++size * 2 > states.length) {
+				resize();
+			}
+			return null;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			CMState[] oldStates = states;
+			Object[] oldValues = values;
+			keys = new long[oldStates.length * 2];
+			states = new CMState[oldStates.length * 2];
+			values = new Object[oldStates.length * 2];
+			for (int j = 0; j < oldStates.length; j++) {
+				if (oldStates[j] != null) {
+					int i = indexOf(oldStates[j]);
+					keys[i] = oldKeys[j];
+					states[i] = oldStates[j];
+					values[i] = oldValues[j];
+				}
+			}
 		}
 	}
 
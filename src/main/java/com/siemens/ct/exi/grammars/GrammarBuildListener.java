@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.Map;
+
+/**
+ * Receives phase timings and counters of grammar builds, e.g., to export
+ * them to a monitoring system or to spot schemas that are expensive to
+ * translate.
+ * 
+ * <p>
+ * Listeners are called on the building thread. A listener set on a
+ * <code>GrammarFactory</code> is shared by all its builders and has to be
+ * thread-safe. Lazy grammars are translated on first access, after the build
+ * has been reported.
+ * </p>
+ * 
+ * @see XSDGrammarsBuilder#setGrammarBuildListener(GrammarBuildListener)
+ * @see GrammarFactory#setGrammarBuildListener(GrammarBuildListener)
+ */
+
+public interface GrammarBuildListener {
+
+	/** listener that ignores all notifications (default) */
+	public static final GrammarBuildListener NO_OP = new GrammarBuildListener() {
+		public void phaseFinished(BuildPhase phase, long durationNanos) {
+		}
+
+		public void buildFinished(Map<BuildCounter, Long> counters) {
+		}
+	};
+
+	/**
+	 * Called once per phase after the grammars have been built, phases that
+	 * did not run are reported with a duration of zero.
+	 * 
+	 * @param phase
+	 *            build phase
+	 * @param durationNanos
+	 *            duration of the phase in nanoseconds
+	 */
+	public void phaseFinished(BuildPhase phase, long durationNanos);
+
+	/**
+	 * Called after the grammars have been built successfully.
+	 * 
+	 * @param counters
+	 *            unmodifiable counters of the build
+	 */
+	public void buildFinished(Map<BuildCounter, Long> counters);
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+
+/**
+ * Bounded cache for schema-informed grammars. Entries are keyed by a digest
+ * of the fully resolved schema set (the root document plus every included,
+ * imported and redefined document) so that a modified schema never hits a
+ * stale entry. Grammars built with different grammar options (e.g., lazy
+ * grammars, budgets or relaxed content models) are kept in separate
+ * entries. The least recently used entry is evicted once the configured
+ * number of entries is exceeded.
+ * 
+ * <p>
+ * A cache instance is thread-safe and may be shared by several
+ * <code>GrammarFactory</code> instances.
+ * </p>
+ * 
+ * @see GrammarFactory#setGrammarCache(GrammarCache)
+ */
+
+public class GrammarCache {
+
+	public static final int DEFAULT_MAXIMUM_ENTRIES = 64;
+
+	protected final int maximumEntries;
+
+	protected final Map<String, SchemaInformedGrammars> entries;
+
+	protected GrammarCache(int maximumEntries) {
+		if (maximumEntries < 1) {
+			throw new IllegalArgumentException(
+					"Grammar cache requires at least one entry, "
+							+ maximumEntries);
+		}
+		this.maximumEntries = maximumEntries;
+		// access-order for LRU eviction
+		this.entries = new LinkedHashMap<String, SchemaInformedGrammars>(16,
+				0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(
+					Map.Entry<String, SchemaInformedGrammars> eldest) {
+				return size() > GrammarCache.this.maximumEntries;
+			}
+		};
+	}
+
+	/**
+	 * Create grammar cache instance holding up to
+	 * {@link #DEFAULT_MAXIMUM_ENTRIES} grammars.
+	 * 
+	 * @return GrammarCache
+	 */
+	public static GrammarCache newInstance() {
+		return new GrammarCache(DEFAULT_MAXIMUM_ENTRIES);
+	}
+
+	/**
+	 * Create grammar cache instance.
+	 * 
+	 * @param maximumEntries
+	 *            number of grammars kept before evicting the least recently
+	 *            used one
+	 * @return GrammarCache
+	 */
+	public static GrammarCache newInstance(int maximumEntries) {
+		return new GrammarCache(maximumEntries);
+	}
+
+	public int getMaximumEntries() {
+		return maximumEntries;
+	}
+
+	public synchronized SchemaInformedGrammars get(String key) {
+		return entries.get(key);
+	}
+
+	public synchronized void put(String key, SchemaInformedGrammars grammars) {
+		entries.put(key, grammars);
+	}
+
+	public synchronized SchemaInformedGrammars remove(String key) {
+		return entries.remove(key);
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+}
@@ -23,9 +23,28 @@ package com.siemens.ct.exi.grammars;
  * 
  */
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xs.XSModel;
 
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.grammars.Grammars;
@@ -35,6 +54,12 @@ import com.siemens.ct.exi.core.grammars.SchemaLessGrammars;
 /**
  * Class allows creating EXI <code>Grammars</code>s from different sources.
  * 
+ * <p>
+ * A factory instance is thread-safe. Each build leases an
+ * <code>XSDGrammarsBuilder</code> from a bounded pool so that up to
+ * {@link #getMaximumGrammarBuilders()} grammars are built concurrently.
+ * </p>
+ * 
  * @author Daniel.Peintner.EXT@siemens.com
  * @author Richard.Kuntschke@siemens.com
  * 
@@ -42,10 +67,57 @@ import com.siemens.ct.exi.core.grammars.SchemaLessGrammars;
 
 public class GrammarFactory {
 
-	protected XSDGrammarsBuilder grammarBuilder;
+	public static final int DEFAULT_MAXIMUM_GRAMMAR_BUILDERS = Runtime
+			.getRuntime().availableProcessors();
+
+	protected final int maximumGrammarBuilders;
+
+	// idle builders, a builder is leased for the duration of one build
+	protected final Queue<XSDGrammarsBuilder> grammarBuilders;
+
+	// limits the number of builders in use
+	protected final Semaphore grammarBuilderPermits;
+
+	// optional cache of already built grammars
+	protected volatile GrammarCache grammarCache;
+
+	// type and element grammars are translated on first access
+	protected volatile boolean lazyGrammars;
+
+	// optional pool of parsed XML Schema grammars
+	protected volatile SchemaGrammarPool schemaGrammarPool;
+
+	// attribute use grammars are shared between types
+	protected volatile boolean shareAttributeGrammars;
+
+	// optional pool for parallel content model exploration
+	protected volatile ForkJoinPool forkJoinPool;
+
+	// receives phase timings and counters of builds
+	protected volatile GrammarBuildListener grammarBuildListener = GrammarBuildListener.NO_OP;
+
+	// optional datatype interner shared between builds
+	protected volatile DatatypeInterner datatypeInterner;
+
+	// build budgets, 0 means unlimited
+	protected volatile int maximumContentModelStates;
+	protected volatile long maximumProductions;
+	protected volatile long maximumBuildTime;
+	protected volatile boolean relaxedContentModels;
 
 	protected GrammarFactory() {
-		grammarBuilder = XSDGrammarsBuilder.newInstance();
+		this(DEFAULT_MAXIMUM_GRAMMAR_BUILDERS);
+	}
+
+	protected GrammarFactory(int maximumGrammarBuilders) {
+		if (maximumGrammarBuilders < 1) {
+			throw new IllegalArgumentException(
+					"Grammar factory requires at least one builder, "
+							+ maximumGrammarBuilders);
+		}
+		this.maximumGrammarBuilders = maximumGrammarBuilders;
+		grammarBuilders = new ConcurrentLinkedQueue<XSDGrammarsBuilder>();
+		grammarBuilderPermits = new Semaphore(maximumGrammarBuilders, true);
 	}
 
 	/**
@@ -57,6 +129,332 @@ public class GrammarFactory {
 		return new GrammarFactory();
 	}
 
+	/**
+	 * Create grammar factory instance.
+	 * 
+	 * @param maximumGrammarBuilders
+	 *            number of grammars that can be built concurrently
+	 * @return GrammarFactory
+	 */
+	public static GrammarFactory newInstance(int maximumGrammarBuilders) {
+		return new GrammarFactory(maximumGrammarBuilders);
+	}
+
+	public int getMaximumGrammarBuilders() {
+		return maximumGrammarBuilders;
+	}
+
+	/**
+	 * Leases a grammar builder, blocks while all builders are in use. Every
+	 * leased builder has to be handed back by calling
+	 * {@link #releaseGrammarBuilder(XSDGrammarsBuilder)}.
+	 * 
+	 * <p>
+	 * Fork-join workers block via {@link ForkJoinPool#managedBlock}, so that
+	 * the pool compensates blocked workers instead of starving, e.g., when
+	 * its parallelism exceeds the number of grammar builders.
+	 * </p>
+	 * 
+	 * @return grammar builder for exclusive use
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	protected XSDGrammarsBuilder leaseGrammarBuilder() throws EXIException {
+		try {
+			ForkJoinPool.managedBlock(new PermitBlocker(grammarBuilderPermits));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EXIException("Interrupted while waiting for builder.",
+					e);
+		}
+		XSDGrammarsBuilder grammarBuilder = grammarBuilders.poll();
+		if (grammarBuilder == null) {
+			grammarBuilder = XSDGrammarsBuilder.newInstance();
+		}
+		grammarBuilder.setLazyGrammars(lazyGrammars);
+		grammarBuilder.setSchemaGrammarPool(schemaGrammarPool);
+		grammarBuilder.setForkJoinPool(forkJoinPool);
+		grammarBuilder.setShareAttributeGrammars(shareAttributeGrammars);
+		grammarBuilder.setGrammarBuildListener(grammarBuildListener);
+		grammarBuilder.setMaximumContentModelStates(maximumContentModelStates);
+		grammarBuilder.setMaximumProductions(maximumProductions);
+		grammarBuilder.setMaximumBuildTime(maximumBuildTime);
+		grammarBuilder.setRelaxedContentModels(relaxedContentModels);
+		grammarBuilder.setDatatypeInterner(datatypeInterner);
+		return grammarBuilder;
+	}
+
+	protected void releaseGrammarBuilder(XSDGrammarsBuilder grammarBuilder) {
+		if (!grammarBuilder.isLazyGrammars()) {
+			// lazy builders stay bound to their grammars
+			grammarBuilders.offer(grammarBuilder);
+		}
+		grammarBuilderPermits.release();
+	}
+
+	/*
+	 * Acquires one permit of the semaphore (also outside fork-join pools)
+	 */
+	static final class PermitBlocker implements ForkJoinPool.ManagedBlocker {
+		final Semaphore permits;
+		boolean acquired;
+
+		PermitBlocker(Semaphore permits) {
+			this.permits = permits;
+		}
+
+		public boolean block() throws InterruptedException {
+			if (!acquired) {
+				permits.acquire();
+				acquired = true;
+			}
+			return true;
+		}
+
+		public boolean isReleasable() {
+			return acquired || (acquired = permits.tryAcquire());
+		}
+	}
+
+	/**
+	 * Lazy grammars translate the grammar of a schema type or element
+	 * declaration on first access instead of translating the whole schema
+	 * up-front. Start-up time and memory then depend on the schema parts
+	 * actually used.
+	 * 
+	 * <p>
+	 * Note: Lazy grammars keep the XML Schema model of the schema and their
+	 * grammar builder in memory. Such a builder is not returned to the
+	 * builder pool, every lazy build creates a new builder. A grammar that
+	 * cannot be translated on first access fails with a
+	 * {@link LazyGrammarException}.
+	 * </p>
+	 * 
+	 * @param lazyGrammars
+	 *            translate grammars on first access
+	 */
+	public void setLazyGrammars(boolean lazyGrammars) {
+		this.lazyGrammars = lazyGrammars;
+	}
+
+	public boolean isLazyGrammars() {
+		return lazyGrammars;
+	}
+
+	/**
+	 * Sets the pool of parsed XML Schema grammars. Imported namespaces are
+	 * then parsed only once and are reused by subsequent builds as long as
+	 * their schema documents do not change, see {@link SchemaGrammarPool}.
+	 * 
+	 * @param schemaGrammarPool
+	 *            grammar pool or <code>null</code> to parse every namespace
+	 */
+	public void setSchemaGrammarPool(SchemaGrammarPool schemaGrammarPool) {
+		this.schemaGrammarPool = schemaGrammarPool;
+	}
+
+	public SchemaGrammarPool getSchemaGrammarPool() {
+		return schemaGrammarPool;
+	}
+
+	/**
+	 * Shares attribute use grammars with identical attribute-chain suffixes
+	 * between types, see
+	 * {@link XSDGrammarsBuilder#setShareAttributeGrammars(boolean)}.
+	 * 
+	 * @param shareAttributeGrammars
+	 *            share attribute use grammars
+	 */
+	public void setShareAttributeGrammars(boolean shareAttributeGrammars) {
+		this.shareAttributeGrammars = shareAttributeGrammars;
+	}
+
+	public boolean isShareAttributeGrammars() {
+		return shareAttributeGrammars;
+	}
+
+	/**
+	 * Enables the parallel build mode. The content models of complex types
+	 * are explored on the given pool while grammars are still created in
+	 * schema order, i.e., the result is the same as for sequential builds.
+	 * 
+	 * <p>
+	 * Note: Lazy grammars are always built sequentially.
+	 * </p>
+	 * 
+	 * @param forkJoinPool
+	 *            pool (e.g. <code>ForkJoinPool.commonPool()</code>) or
+	 *            <code>null</code> for sequential builds
+	 */
+	public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	public ForkJoinPool getForkJoinPool() {
+		return forkJoinPool;
+	}
+
+	/**
+	 * Sets the listener receiving phase timings and counters of grammar
+	 * builds. Grammars taken from the grammar cache are not reported.
+	 * 
+	 * <p>
+	 * Note: The listener is shared by concurrent builds and has to be
+	 * thread-safe.
+	 * </p>
+	 * 
+	 * @param grammarBuildListener
+	 *            listener, {@link GrammarBuildListener#NO_OP} by default
+	 */
+	public void setGrammarBuildListener(
+			GrammarBuildListener grammarBuildListener) {
+		if (grammarBuildListener == null) {
+			throw new IllegalArgumentException(
+					"Grammar build listener must not be null");
+		}
+		this.grammarBuildListener = grammarBuildListener;
+	}
+
+	public GrammarBuildListener getGrammarBuildListener() {
+		return grammarBuildListener;
+	}
+
+	/**
+	 * Sets the interner sharing structurally equal datatypes between builds,
+	 * see {@link DatatypeInterner}. Builds then share the grammars of the XML
+	 * Schema built-in types, also builds of a single schema.
+	 * 
+	 * @param datatypeInterner
+	 *            interner or <code>null</code> to share datatypes within a
+	 *            build only
+	 */
+	public void setDatatypeInterner(DatatypeInterner datatypeInterner) {
+		this.datatypeInterner = datatypeInterner;
+	}
+
+	public DatatypeInterner getDatatypeInterner() {
+		return datatypeInterner;
+	}
+
+	/**
+	 * Limits the number of states explored per content model, see
+	 * {@link XSDGrammarsBuilder#setMaximumContentModelStates(int)}.
+	 * 
+	 * @param maximumContentModelStates
+	 *            states per content model or 0 for no limit (default)
+	 */
+	public void setMaximumContentModelStates(int maximumContentModelStates) {
+		if (maximumContentModelStates < 0) {
+			throw new IllegalArgumentException(
+					"Negative content model state limit, "
+							+ maximumContentModelStates);
+		}
+		this.maximumContentModelStates = maximumContentModelStates;
+	}
+
+	public int getMaximumContentModelStates() {
+		return maximumContentModelStates;
+	}
+
+	/**
+	 * Limits the total number of productions per build, see
+	 * {@link XSDGrammarsBuilder#setMaximumProductions(long)}.
+	 * 
+	 * @param maximumProductions
+	 *            productions per build or 0 for no limit (default)
+	 */
+	public void setMaximumProductions(long maximumProductions) {
+		if (maximumProductions < 0) {
+			throw new IllegalArgumentException("Negative production limit, "
+					+ maximumProductions);
+		}
+		this.maximumProductions = maximumProductions;
+	}
+
+	public long getMaximumProductions() {
+		return maximumProductions;
+	}
+
+	/**
+	 * Limits the time spent to translate a schema into grammars, see
+	 * {@link XSDGrammarsBuilder#setMaximumBuildTime(long)}.
+	 * 
+	 * @param maximumBuildTime
+	 *            milliseconds or 0 for no limit (default)
+	 */
+	public void setMaximumBuildTime(long maximumBuildTime) {
+		if (maximumBuildTime < 0) {
+			throw new IllegalArgumentException("Negative build time limit, "
+					+ maximumBuildTime);
+		}
+		this.maximumBuildTime = maximumBuildTime;
+	}
+
+	public long getMaximumBuildTime() {
+		return maximumBuildTime;
+	}
+
+	/**
+	 * Content models exceeding the content model state or production budget
+	 * get a relaxed content grammar instead of failing the build, see
+	 * {@link XSDGrammarsBuilder#setRelaxedContentModels(boolean)}.
+	 * 
+	 * @param relaxedContentModels
+	 *            relax content models instead of failing
+	 */
+	public void setRelaxedContentModels(boolean relaxedContentModels) {
+		this.relaxedContentModels = relaxedContentModels;
+	}
+
+	public boolean isRelaxedContentModels() {
+		return relaxedContentModels;
+	}
+
+	/**
+	 * Sets the cache used for schema-informed grammars. Grammars are looked up
+	 * by a digest of the fully resolved schema set (root document plus all
+	 * includes, imports and redefines) and are only built if no entry exists.
+	 * 
+	 * <p>
+	 * Note: Cached grammars are shared and must not be modified by the
+	 * caller.
+	 * </p>
+	 * 
+	 * @param grammarCache
+	 *            grammar cache or <code>null</code> to disable caching
+	 */
+	public void setGrammarCache(GrammarCache grammarCache) {
+		this.grammarCache = grammarCache;
+	}
+
+	public GrammarCache getGrammarCache() {
+		return grammarCache;
+	}
+
+	/*
+	 * Datatypes can only be interned between builds sharing the built-in
+	 * type grammars
+	 */
+	private BuiltInTypeGrammars getInternerBuiltInTypeGrammars()
+			throws EXIException {
+		return datatypeInterner == null ? null : BuiltInTypeGrammars
+				.getInstance();
+	}
+
+	// cache key, same schema content reported under different ids or built
+	// with different grammar options is kept separately
+	protected String getCacheKey(String digest, String schemaId) {
+		StringBuilder key = new StringBuilder(digest);
+		key.append('@').append(schemaId);
+		key.append(lazyGrammars ? ";lazy" : "");
+		key.append(shareAttributeGrammars ? ";sharedAttributes" : "");
+		key.append(";states=").append(maximumContentModelStates);
+		key.append(";productions=").append(maximumProductions);
+		key.append(";time=").append(maximumBuildTime);
+		key.append(relaxedContentModels ? ";relaxed" : "");
+		return key.toString();
+	}
+
 	/**
 	 * Schema information is generated for processing the EXI body.
 	 * 
@@ -83,13 +481,130 @@ public class GrammarFactory {
 	 */
 	public Grammars createGrammars(String xsdLocation,
 			XMLEntityResolver entityResolver) throws EXIException {
+		return createSchemaGrammars(xsdLocation, entityResolver, null);
+	}
+
+	/**
+	 * Schema information is generated for all given schema locations. Schemas
+	 * are built in parallel on a fork-join pool with
+	 * {@link #getMaximumGrammarBuilders()} workers. The grammars of the XML
+	 * Schema built-in types are translated only once and are shared by all
+	 * results.
+	 * 
+	 * @param xsdLocations
+	 *            file locations
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @return schema-informed EXI grammars by location, in iteration order of
+	 *         the given locations
+	 * @throws EXIException
+	 *             EXI exception, e.g., if one schema cannot be built
+	 */
+	public Map<String, Grammars> createGrammars(
+			Collection<String> xsdLocations, XMLEntityResolver entityResolver)
+			throws EXIException {
+		ForkJoinPool pool = new ForkJoinPool(maximumGrammarBuilders);
+		try {
+			return createGrammars(xsdLocations, entityResolver, pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Schema information is generated for all given schema locations on the
+	 * given fork-join pool, see
+	 * {@link #createGrammars(Collection, XMLEntityResolver)}.
+	 * 
+	 * @param xsdLocations
+	 *            file locations
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @param pool
+	 *            pool running the builds
+	 * @return schema-informed EXI grammars by location, in iteration order of
+	 *         the given locations
+	 * @throws EXIException
+	 *             EXI exception, e.g., if one schema cannot be built
+	 */
+	public Map<String, Grammars> createGrammars(
+			Collection<String> xsdLocations,
+			final XMLEntityResolver entityResolver, ForkJoinPool pool)
+			throws EXIException {
+		final BuiltInTypeGrammars builtInTypeGrammars = BuiltInTypeGrammars
+				.getInstance();
+
+		Map<String, ForkJoinTask<Grammars>> tasks = new LinkedHashMap<String, ForkJoinTask<Grammars>>();
+		for (final String xsdLocation : xsdLocations) {
+			if (!tasks.containsKey(xsdLocation)) {
+				tasks.put(xsdLocation, pool.submit(new Callable<Grammars>() {
+					public Grammars call() throws EXIException {
+						return createSchemaGrammars(xsdLocation,
+								entityResolver, builtInTypeGrammars);
+					}
+				}));
+			}
+		}
+
+		Map<String, Grammars> grammars = new LinkedHashMap<String, Grammars>();
+		try {
+			for (Map.Entry<String, ForkJoinTask<Grammars>> e : tasks
+					.entrySet()) {
+				grammars.put(e.getKey(), e.getValue().get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new EXIException("Interrupted while building grammars.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof EXIException) {
+				throw (EXIException) e.getCause();
+			}
+			throw new EXIException(e.getCause());
+		} finally {
+			for (ForkJoinTask<Grammars> task : tasks.values()) {
+				task.cancel(false);
+			}
+		}
+
+		return grammars;
+	}
+
+	Grammars createSchemaGrammars(String xsdLocation,
+			XMLEntityResolver entityResolver,
+			BuiltInTypeGrammars builtInTypeGrammars) throws EXIException {
 		if (xsdLocation == null || xsdLocation.equals("")) {
 			throw new EXIException("SchemaLocation not specified correctly!");
 		} else {
+			String key = null;
+			if (grammarCache != null) {
+				String digest = SchemaDigest.digest(xsdLocation,
+						entityResolver);
+				if (digest != null) {
+					key = getCacheKey(digest, xsdLocation);
+					SchemaInformedGrammars g = grammarCache.get(key);
+					if (g != null) {
+						return g;
+					}
+				}
+			}
 			// System.out.println("Grammar for: " + xsdLocation);
-			grammarBuilder.loadGrammars(xsdLocation, entityResolver);
-			SchemaInformedGrammars g = grammarBuilder.toGrammars();
+			if (builtInTypeGrammars == null) {
+				builtInTypeGrammars = getInternerBuiltInTypeGrammars();
+			}
+			SchemaInformedGrammars g;
+			XSDGrammarsBuilder grammarBuilder = leaseGrammarBuilder();
+			try {
+				grammarBuilder.setBuiltInTypeGrammars(builtInTypeGrammars);
+				grammarBuilder.loadGrammars(xsdLocation, entityResolver);
+				g = grammarBuilder.toGrammars();
+			} finally {
+				grammarBuilder.setBuiltInTypeGrammars(null);
+				releaseGrammarBuilder(grammarBuilder);
+			}
 			g.setSchemaId(xsdLocation);
+			if (key != null) {
+				grammarCache.put(key, g);
+			}
 			return g;
 		}
 	}
@@ -120,26 +635,234 @@ public class GrammarFactory {
 	 */
 	public Grammars createGrammars(InputStream is,
 			XMLEntityResolver entityResolver) throws EXIException {
-		grammarBuilder.loadGrammars(is, entityResolver);
-		SchemaInformedGrammars g = grammarBuilder.toGrammars();
+		final String schemaId = "No-Schema-ID-Set";
+		String key = null;
+		if (grammarCache != null) {
+			// stream can be consumed only once
+			byte[] xsd;
+			try {
+				xsd = SchemaDigest.readFully(is);
+			} catch (IOException e) {
+				throw new EXIException("XML Schema document cannot be read.",
+						e);
+			}
+			is = new ByteArrayInputStream(xsd);
+			String digest = SchemaDigest.digest(xsd, entityResolver);
+			if (digest != null) {
+				key = getCacheKey(digest, schemaId);
+				SchemaInformedGrammars g = grammarCache.get(key);
+				if (g != null) {
+					return g;
+				}
+			}
+		}
+		BuiltInTypeGrammars builtInTypeGrammars = getInternerBuiltInTypeGrammars();
+		SchemaInformedGrammars g;
+		XSDGrammarsBuilder grammarBuilder = leaseGrammarBuilder();
+		try {
+			grammarBuilder.setBuiltInTypeGrammars(builtInTypeGrammars);
+			grammarBuilder.loadGrammars(is, entityResolver);
+			g = grammarBuilder.toGrammars();
+		} finally {
+			grammarBuilder.setBuiltInTypeGrammars(null);
+			releaseGrammarBuilder(grammarBuilder);
+		}
+		g.setSchemaId(schemaId);
+		if (key != null) {
+			grammarCache.put(key, g);
+		}
+		return g;
+	}
+
+	/**
+	 * Schema information is generated for processing the EXI body. The given
+	 * XML Schema model (e.g., a model already used for validation) is used
+	 * as it is, the schema is not parsed again.
+	 * 
+	 * @param xsModel
+	 *            Xerces XML Schema model
+	 * @return schema-informed EXI grammars
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	public Grammars createGrammars(XSModel xsModel) throws EXIException {
+		BuiltInTypeGrammars builtInTypeGrammars = getInternerBuiltInTypeGrammars();
+		SchemaInformedGrammars g;
+		XSDGrammarsBuilder grammarBuilder = leaseGrammarBuilder();
+		try {
+			grammarBuilder.setBuiltInTypeGrammars(builtInTypeGrammars);
+			grammarBuilder.loadGrammars(xsModel);
+			g = grammarBuilder.toGrammars();
+		} finally {
+			grammarBuilder.setBuiltInTypeGrammars(null);
+			releaseGrammarBuilder(grammarBuilder);
+		}
 		g.setSchemaId("No-Schema-ID-Set");
 		return g;
 	}
 
+	/**
+	 * Schema information is generated asynchronously on the default builder
+	 * executor, see {@link #createGrammarsAsync(String, XMLEntityResolver,
+	 * Executor)}.
+	 * 
+	 * @param xsdLocation
+	 *            file location
+	 * @return future completed with the schema-informed EXI grammars
+	 */
+	public CompletableFuture<Grammars> createGrammarsAsync(String xsdLocation) {
+		return this.createGrammarsAsync(xsdLocation, null);
+	}
+
+	/**
+	 * Schema information is generated asynchronously on the default builder
+	 * executor, see {@link #createGrammarsAsync(String, XMLEntityResolver,
+	 * Executor)}.
+	 * 
+	 * @param xsdLocation
+	 *            file location
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @return future completed with the schema-informed EXI grammars
+	 */
+	public CompletableFuture<Grammars> createGrammarsAsync(String xsdLocation,
+			XMLEntityResolver entityResolver) {
+		return this.createGrammarsAsync(xsdLocation, entityResolver,
+				getDefaultExecutor());
+	}
+
+	/**
+	 * Schema information is generated asynchronously. Loading the XML Schema
+	 * and translating it to EXI grammars runs on the given executor, the
+	 * calling thread never blocks. Build failures complete the returned future
+	 * exceptionally with the according <code>EXIException</code>.
+	 * 
+	 * @param xsdLocation
+	 *            file location
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @param executor
+	 *            executor running the build
+	 * @return future completed with the schema-informed EXI grammars
+	 */
+	public CompletableFuture<Grammars> createGrammarsAsync(
+			final String xsdLocation, final XMLEntityResolver entityResolver,
+			Executor executor) {
+		return submit(new GrammarsBuild() {
+			public Grammars build() throws EXIException {
+				return createGrammars(xsdLocation, entityResolver);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Schema information is generated asynchronously on the default builder
+	 * executor, see {@link #createGrammarsAsync(String, XMLEntityResolver,
+	 * Executor)}.
+	 * 
+	 * @param is
+	 *            input stream
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @return future completed with the schema-informed EXI grammars
+	 */
+	public CompletableFuture<Grammars> createGrammarsAsync(InputStream is,
+			XMLEntityResolver entityResolver) {
+		return this.createGrammarsAsync(is, entityResolver,
+				getDefaultExecutor());
+	}
+
+	/**
+	 * Schema information is generated asynchronously, see
+	 * {@link #createGrammarsAsync(String, XMLEntityResolver, Executor)}.
+	 * 
+	 * @param is
+	 *            input stream
+	 * @param entityResolver
+	 *            application can register XSD resolver
+	 * @param executor
+	 *            executor running the build
+	 * @return future completed with the schema-informed EXI grammars
+	 */
+	public CompletableFuture<Grammars> createGrammarsAsync(
+			final InputStream is, final XMLEntityResolver entityResolver,
+			Executor executor) {
+		return submit(new GrammarsBuild() {
+			public Grammars build() throws EXIException {
+				return createGrammars(is, entityResolver);
+			}
+		}, executor);
+	}
+
+	/**
+	 * Executor used by asynchronous builds if the caller does not supply one.
+	 * Threads are daemon threads and are created on demand.
+	 * 
+	 * @return default builder executor
+	 */
+	public static Executor getDefaultExecutor() {
+		return DefaultExecutorHolder.EXECUTOR;
+	}
+
+	protected static CompletableFuture<Grammars> submit(
+			final GrammarsBuild grammarsBuild, Executor executor) {
+		final CompletableFuture<Grammars> future = new CompletableFuture<Grammars>();
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						future.complete(grammarsBuild.build());
+					} catch (Throwable t) {
+						future.completeExceptionally(t);
+					}
+				}
+			});
+		} catch (RuntimeException e) {
+			// e.g., RejectedExecutionException
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	interface GrammarsBuild {
+		Grammars build() throws EXIException;
+	}
+
+	// created on first asynchronous build
+	static class DefaultExecutorHolder {
+		static final ExecutorService EXECUTOR = Executors
+				.newCachedThreadPool(new ThreadFactory() {
+					final AtomicInteger threadNumber = new AtomicInteger(1);
+
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "exi-grammars-builder-"
+								+ threadNumber.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
 	/**
 	 * No user defined schema information is generated for processing the EXI
 	 * body; however, the built-in XML schema types are available for use in the
 	 * EXI body.
 	 * 
+	 * <p>
+	 * Note: The grammars are built once and the same instance is returned on
+	 * every call. The grammars object rejects modifications (schema id,
+	 * built-in types only flag), its grammar context, qname contexts,
+	 * grammars and productions are shared as they are and must never be
+	 * modified by the caller.
+	 * </p>
+	 * 
 	 * @return built-in XSD EXI grammars
 	 * @throws EXIException
 	 *             EXI exception
 	 */
 	public Grammars createXSDTypesOnlyGrammars() throws EXIException {
-		grammarBuilder.loadXSDTypesOnlyGrammars();
-		SchemaInformedGrammars g = grammarBuilder.toGrammars();
-		g.setBuiltInXMLSchemaTypesOnly(true); // builtInXMLSchemaTypesOnly
-		return g;
+		// built once, shared process-wide
+		return BuiltInTypeGrammars.getInstance().grammars;
 	}
 
 	/**
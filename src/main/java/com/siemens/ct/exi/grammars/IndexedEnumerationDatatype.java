@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.siemens.ct.exi.core.context.QNameContext;
+import com.siemens.ct.exi.core.datatype.Datatype;
+import com.siemens.ct.exi.core.datatype.EnumerationDatatype;
+import com.siemens.ct.exi.core.values.DateTimeValue;
+import com.siemens.ct.exi.core.values.DecimalValue;
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.Value;
+
+/**
+ * Enumeration datatype with hash indexes from enumeration values to their
+ * index, built once per datatype. Encoders can look up the enumeration index
+ * of a value in constant time instead of comparing all enumeration values.
+ * 
+ * <p>
+ * Values of the enumeration value class are looked up by value equality,
+ * others (e.g. string values) by their lexical or canonical representation.
+ * Decimal, float and date-time values, whose equal values may differ in hash
+ * code and canonical representation, and values of mixed enumerations not
+ * found this way are compared with all enumeration values. Hence the result
+ * is the same as comparing the enumeration values in order with
+ * <code>Value.equals</code>.
+ * </p>
+ */
+
+public class IndexedEnumerationDatatype extends EnumerationDatatype {
+
+	// enumeration value --> first index
+	protected final Map<Value, Integer> valueIndex;
+
+	// lexical (schema) and canonical representation --> first index
+	protected final Map<String, Integer> lexicalIndex;
+
+	// common class of all enumeration values, null if mixed
+	protected final Class<?> valueClass;
+
+	// equal or mixed enumeration values, a value may then match several
+	protected final boolean ambiguousValues;
+
+	// values missing in the indexes may still equal an enumeration value
+	protected final boolean linearFallback;
+
+	public IndexedEnumerationDatatype(Value[] enumValues,
+			String[] lexicalValues, Datatype dtEnumValues,
+			QNameContext schemaType) {
+		super(enumValues, dtEnumValues, schemaType);
+
+		valueIndex = new HashMap<Value, Integer>(enumValues.length * 2);
+		lexicalIndex = new HashMap<String, Integer>(enumValues.length * 4);
+		Class<?> c = enumValues.length > 0 ? enumValues[0].getClass() : null;
+		boolean duplicates = false;
+		for (int i = 0; i < enumValues.length; i++) {
+			if (enumValues[i].getClass() != c) {
+				c = null;
+			}
+			if (valueIndex.containsKey(enumValues[i])) {
+				duplicates = true;
+			} else {
+				valueIndex.put(enumValues[i], i);
+			}
+		}
+		// schema representation first
+		for (int i = 0; lexicalValues != null && i < lexicalValues.length; i++) {
+			if (!lexicalIndex.containsKey(lexicalValues[i])) {
+				lexicalIndex.put(lexicalValues[i], i);
+			}
+		}
+		for (int i = 0; i < enumValues.length; i++) {
+			String canonical = enumValues[i].toString();
+			if (!lexicalIndex.containsKey(canonical)) {
+				lexicalIndex.put(canonical, i);
+			}
+		}
+		valueClass = c;
+		ambiguousValues = duplicates || c == null;
+		linearFallback = c == null || c == DecimalValue.class
+				|| c == FloatValue.class || c == DateTimeValue.class;
+	}
+
+	/**
+	 * Returns the index of the first enumeration value that is equal to the
+	 * given value.
+	 * 
+	 * @param value
+	 *            value
+	 * @return enumeration index or -1 if the value is not enumerated
+	 */
+	public int getEnumValueIndex(Value value) {
+		if (value == null) {
+			return -1;
+		}
+		if (value.getClass() == valueClass) {
+			Integer index = valueIndex.get(value);
+			if (index != null) {
+				return index;
+			}
+		} else if (!ambiguousValues) {
+			Integer index = lexicalIndex.get(value.toString());
+			if (index != null && enumValues[index].equals(value)) {
+				return index;
+			}
+		}
+		if (!linearFallback) {
+			return -1;
+		}
+		// other representations of a decimal, float or date-time value
+		for (int i = 0; i < enumValues.length; i++) {
+			if (enumValues[i].equals(value)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the index of the enumeration value with the given lexical
+	 * (as in the schema) or canonical representation.
+	 * 
+	 * @param lexicalValue
+	 *            lexical or canonical representation
+	 * @return enumeration index or -1 if no such value is enumerated
+	 */
+	public int getEnumValueIndex(String lexicalValue) {
+		Integer index = lexicalIndex.get(lexicalValue);
+		return index == null ? -1 : index;
+	}
+}
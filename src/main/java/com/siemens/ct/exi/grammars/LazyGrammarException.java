@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import com.siemens.ct.exi.core.exceptions.EXIException;
+
+/**
+ * Thrown when a lazy type or element grammar cannot be translated on first
+ * access. Grammar accessors cannot throw checked exceptions, the
+ * {@link EXIException} of the translation is the cause of this exception.
+ * 
+ * @see XSDGrammarsBuilder#setLazyGrammars(boolean)
+ */
+
+public class LazyGrammarException extends RuntimeException {
+
+	private static final long serialVersionUID = -1873624309124810525L;
+
+	public LazyGrammarException(String message, EXIException cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public EXIException getCause() {
+		return (EXIException) super.getCause();
+	}
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.xerces.impl.XMLEntityManager;
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xni.parser.XMLInputSource;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.siemens.ct.exi.core.Constants;
+
+/**
+ * Computes a digest over a fully resolved schema set, i.e. the root schema
+ * document and every document reachable via xs:include, xs:import,
+ * xs:redefine and xs:override. Documents are resolved the same way
+ * <code>XMLSchemaLoader</code> resolves them (entity resolver first, system
+ * identifier relative to the referencing document otherwise).
+ * 
+ * <p>
+ * Note: References are only scanned, the schema documents are not
+ * validated. A schema set that cannot be read completely yields no digest.
+ * </p>
+ * 
+ */
+
+final class SchemaDigest {
+
+	static final String ALGORITHM = "SHA-256";
+
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final XMLEntityResolver entityResolver;
+
+	private final MessageDigest messageDigest;
+
+	private final SAXParserFactory saxParserFactory;
+
+	// expanded system identifiers already digested
+	private final Set<String> visited;
+
+	// expanded system identifier --> digested document
+	private final Map<String, SchemaDocument> documents;
+
+	private SchemaDigest(XMLEntityResolver entityResolver) throws Exception {
+		this.entityResolver = entityResolver;
+		this.messageDigest = MessageDigest.getInstance(ALGORITHM);
+		this.saxParserFactory = SAXParserFactory.newInstance();
+		this.saxParserFactory.setNamespaceAware(true);
+		this.visited = new HashSet<String>();
+		this.documents = new LinkedHashMap<String, SchemaDocument>();
+	}
+
+	/**
+	 * Digest of the schema set with the given root location.
+	 * 
+	 * @param xsdLocation
+	 *            root schema location
+	 * @param entityResolver
+	 *            entity resolver or <code>null</code>
+	 * @return hex encoded digest or <code>null</code> if the schema set could
+	 *         not be read
+	 */
+	static String digest(String xsdLocation, XMLEntityResolver entityResolver) {
+		try {
+			return digestSchema(xsdLocation, entityResolver).toHexString();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Documents of the schema set with the given root location, in
+	 * depth-first document order.
+	 * 
+	 * @param xsdLocation
+	 *            root schema location
+	 * @param entityResolver
+	 *            entity resolver or <code>null</code>
+	 * @return documents by expanded system identifier or <code>null</code>
+	 *         if the schema set could not be read
+	 */
+	static Map<String, SchemaDocument> documents(String xsdLocation,
+			XMLEntityResolver entityResolver) {
+		try {
+			return digestSchema(xsdLocation, entityResolver).documents;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	private static SchemaDigest digestSchema(String xsdLocation,
+			XMLEntityResolver entityResolver) throws Exception {
+		SchemaDigest sd = new SchemaDigest(entityResolver);
+		XSDDescription desc = new XSDDescription();
+		desc.setContextType(XSDDescription.CONTEXT_PREPARSE);
+		desc.setLiteralSystemId(xsdLocation);
+		XMLInputSource xsdSource = null;
+		if (entityResolver != null) {
+			// same lookup as EXIContentModelBuilder.loadGrammars(String)
+			xsdSource = entityResolver.resolveEntity(desc);
+		}
+		if (xsdSource == null) {
+			xsdSource = new XMLInputSource(null, xsdLocation, null);
+		}
+		String systemId = sd.expand(xsdSource.getSystemId(),
+				xsdSource.getBaseSystemId());
+		if (systemId != null) {
+			sd.visited.add(systemId);
+		}
+		sd.update(systemId, read(xsdSource, systemId), null);
+		return sd;
+	}
+
+	/**
+	 * Digest of the schema set with the given root document.
+	 * 
+	 * @param xsd
+	 *            root schema document (no system identifier)
+	 * @param entityResolver
+	 *            entity resolver or <code>null</code>
+	 * @return hex encoded digest or <code>null</code> if the schema set could
+	 *         not be read
+	 */
+	static String digest(byte[] xsd, XMLEntityResolver entityResolver) {
+		try {
+			SchemaDigest sd = new SchemaDigest(entityResolver);
+			sd.update(null, xsd, null);
+			return sd.toHexString();
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Digest of a single schema document.
+	 * 
+	 * @param expandedSystemId
+	 *            expanded system identifier of the document
+	 * @param entityResolver
+	 *            entity resolver or <code>null</code>
+	 * @return hex encoded digest or <code>null</code> if the document could
+	 *         not be read
+	 */
+	static String digestDocument(String expandedSystemId,
+			XMLEntityResolver entityResolver) {
+		if (expandedSystemId == null) {
+			return null;
+		}
+		try {
+			XMLInputSource source = null;
+			if (entityResolver != null) {
+				XSDDescription desc = new XSDDescription();
+				desc.setLiteralSystemId(expandedSystemId);
+				desc.setExpandedSystemId(expandedSystemId);
+				source = entityResolver.resolveEntity(desc);
+			}
+			if (source == null) {
+				source = new XMLInputSource(null, expandedSystemId, null);
+			}
+			return toHexString(MessageDigest.getInstance(ALGORITHM).digest(
+					read(source, expandedSystemId)));
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	static byte[] readFully(InputStream is) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int len;
+		while ((len = is.read(buffer)) != -1) {
+			baos.write(buffer, 0, len);
+		}
+		return baos.toByteArray();
+	}
+
+	private String expand(String systemId, String baseSystemId)
+			throws Exception {
+		if (systemId == null) {
+			return null;
+		}
+		return XMLEntityManager.expandSystemId(systemId, baseSystemId, false);
+	}
+
+	static byte[] read(XMLInputSource source, String expandedSystemId)
+			throws IOException {
+		if (source.getByteStream() != null) {
+			InputStream is = source.getByteStream();
+			try {
+				return readFully(is);
+			} finally {
+				is.close();
+			}
+		} else if (source.getCharacterStream() != null) {
+			Reader r = source.getCharacterStream();
+			try {
+				StringBuilder sb = new StringBuilder();
+				char[] buffer = new char[4096];
+				int len;
+				while ((len = r.read(buffer)) != -1) {
+					sb.append(buffer, 0, len);
+				}
+				return sb.toString().getBytes(UTF_8);
+			} finally {
+				r.close();
+			}
+		} else if (expandedSystemId != null) {
+			InputStream is = new URL(expandedSystemId).openStream();
+			try {
+				return readFully(is);
+			} finally {
+				is.close();
+			}
+		} else {
+			throw new IOException("Schema document cannot be read");
+		}
+	}
+
+	private void update(String systemId, byte[] content,
+			String includingNamespace) throws Exception {
+		// length prefix keeps concatenated documents unambiguous
+		int len = content.length;
+		messageDigest.update(new byte[] { (byte) (len >>> 24),
+				(byte) (len >>> 16), (byte) (len >>> 8), (byte) len });
+		messageDigest.update(content);
+
+		SchemaDocument doc = new SchemaDocument(toHexString(MessageDigest
+				.getInstance(ALGORITHM).digest(content)));
+		if (systemId != null) {
+			documents.put(systemId, doc);
+		}
+
+		// referenced schema documents (depth-first, document order)
+		List<SchemaReference> refs = scanReferences(content, systemId, doc);
+		if (doc.namespace == null) {
+			// included documents without target namespace (chameleon)
+			doc.namespace = includingNamespace == null ? Constants.XML_NULL_NS_URI
+					: includingNamespace;
+		}
+		for (SchemaReference ref : refs) {
+			XSDDescription desc = new XSDDescription();
+			desc.setContextType(ref.contextType);
+			desc.setTargetNamespace(ref.namespace);
+			desc.setLiteralSystemId(ref.schemaLocation);
+			desc.setBaseSystemId(systemId);
+			desc.setExpandedSystemId(expand(ref.schemaLocation, systemId));
+
+			XMLInputSource refSource = null;
+			if (entityResolver != null) {
+				refSource = entityResolver.resolveEntity(desc);
+			}
+			if (refSource == null) {
+				if (ref.schemaLocation == null) {
+					// import without location hint, nothing to load
+					continue;
+				}
+				refSource = new XMLInputSource(null, ref.schemaLocation,
+						systemId);
+			}
+			String refSystemId = expand(refSource.getSystemId(),
+					refSource.getBaseSystemId());
+			if (refSystemId != null && !visited.add(refSystemId)) {
+				// already digested (e.g., cyclic includes)
+				continue;
+			}
+			update(refSystemId, read(refSource, refSystemId),
+					ref.contextType == XSDDescription.CONTEXT_IMPORT ? null
+							: doc.namespace);
+		}
+	}
+
+	private List<SchemaReference> scanReferences(byte[] content,
+			String systemId, final SchemaDocument doc) throws Exception {
+		final List<SchemaReference> refs = new ArrayList<SchemaReference>();
+		SAXParser parser = saxParserFactory.newSAXParser();
+		InputSource is = new InputSource(new ByteArrayInputStream(content));
+		is.setSystemId(systemId);
+		parser.parse(is, new DefaultHandler() {
+			@Override
+			public void startElement(String uri, String localName,
+					String qName, Attributes atts) {
+				if (!Constants.XML_SCHEMA_NS_URI.equals(uri)) {
+					return;
+				}
+				short contextType;
+				if ("schema".equals(localName)) {
+					doc.namespace = atts.getValue("targetNamespace");
+					return;
+				} else if ("include".equals(localName)) {
+					contextType = XSDDescription.CONTEXT_INCLUDE;
+				} else if ("import".equals(localName)) {
+					contextType = XSDDescription.CONTEXT_IMPORT;
+				} else if ("redefine".equals(localName)
+						|| "override".equals(localName)) {
+					contextType = XSDDescription.CONTEXT_REDEFINE;
+				} else {
+					return;
+				}
+				String namespace = contextType == XSDDescription.CONTEXT_IMPORT ? atts
+						.getValue("namespace") : null;
+				refs.add(new SchemaReference(contextType, atts
+						.getValue("schemaLocation"), namespace));
+
+			}
+		});
+		return refs;
+	}
+
+	private String toHexString() {
+		return toHexString(messageDigest.digest());
+	}
+
+	private static String toHexString(byte[] digest) {
+		StringBuilder sb = new StringBuilder(digest.length * 2);
+		for (int i = 0; i < digest.length; i++) {
+			int b = digest[i] & 0xFF;
+			sb.append(Character.forDigit(b >>> 4, 16));
+			sb.append(Character.forDigit(b & 0x0F, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Digest and target namespace of a single schema document.
+	 */
+	static class SchemaDocument {
+		final String digest;
+		// effective target namespace, "" for none
+		String namespace;
+
+		SchemaDocument(String digest) {
+			this.digest = digest;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o instanceof SchemaDocument) {
+				SchemaDocument other = (SchemaDocument) o;
+				return digest.equals(other.digest)
+						&& namespace.equals(other.namespace);
+			}
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return digest.hashCode();
+		}
+	}
+
+	static class SchemaReference {
+		final short contextType;
+		final String schemaLocation;
+		final String namespace;
+
+		SchemaReference(short contextType, String schemaLocation,
+				String namespace) {
+			this.contextType = contextType;
+			this.schemaLocation = schemaLocation;
+			this.namespace = namespace;
+		}
+	}
+}
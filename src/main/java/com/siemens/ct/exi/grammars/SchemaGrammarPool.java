@@ -0,0 +1,343 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.xerces.impl.xs.SchemaGrammar;
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.util.XMLGrammarPoolImpl;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.apache.xerces.xni.parser.XMLEntityResolver;
+import org.apache.xerces.xs.StringList;
+
+/**
+ * Pool of parsed XML Schema grammars that is shared across
+ * <code>loadGrammars</code> calls. Namespaces imported by a schema are taken
+ * from the pool if present and are parsed otherwise. Every parsed namespace is
+ * added to the pool.
+ * 
+ * <p>
+ * Grammars are pooled by target namespace together with the expanded system
+ * identifier and digest of every schema document they (and the namespaces
+ * they import) were parsed from. A pooled grammar is only reused if it is
+ * imported from one of its documents and no document changed since, other
+ * grammars are invalidated and parsed again. Documents are read the same way
+ * the build resolves them (entity resolver first, system identifier
+ * otherwise). Grammars whose documents cannot be read again (e.g., a root
+ * schema read from an input stream) and schemas without target namespace
+ * are never pooled. A pool instance is thread-safe.
+ * </p>
+ * 
+ * @see GrammarFactory#setSchemaGrammarPool(SchemaGrammarPool)
+ */
+
+public class SchemaGrammarPool implements XMLGrammarPool {
+
+	protected final XMLGrammarPoolImpl grammarPool;
+
+	// pooled grammar --> expanded system id --> document digest (guarded by
+	// grammarPool)
+	protected final Map<SchemaGrammar, Map<String, String>> documentDigests;
+
+	protected SchemaGrammarPool() {
+		grammarPool = new XMLGrammarPoolImpl();
+		documentDigests = new IdentityHashMap<SchemaGrammar, Map<String, String>>();
+	}
+
+	/**
+	 * Create schema grammar pool instance.
+	 * 
+	 * @return SchemaGrammarPool
+	 */
+	public static SchemaGrammarPool newInstance() {
+		return new SchemaGrammarPool();
+	}
+
+	public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+		// grammars are retrieved per imported namespace only
+		return new Grammar[0];
+	}
+
+	public void cacheGrammars(String grammarType, Grammar[] grammars) {
+		cacheGrammars(grammarType, grammars, null);
+	}
+
+	void cacheGrammars(String grammarType, Grammar[] grammars,
+			XMLEntityResolver entityResolver) {
+		if (XMLGrammarDescription.XML_SCHEMA.equals(grammarType)) {
+			for (Grammar g : grammars) {
+				SchemaGrammar sg = (SchemaGrammar) g;
+				if (sg.getTargetNamespace() == null
+						|| grammarPool.getGrammar(sg.getGrammarDescription()) == sg) {
+					// not pooled or taken from the pool
+					continue;
+				}
+				Map<String, String> digests = new HashMap<String, String>();
+				Set<SchemaGrammar> handled = Collections
+						.newSetFromMap(new IdentityHashMap<SchemaGrammar, Boolean>());
+				if (addDocumentDigests(sg, entityResolver, digests, handled)) {
+					synchronized (grammarPool) {
+						Grammar pooled = grammarPool.getGrammar(sg
+								.getGrammarDescription());
+						if (pooled != null) {
+							documentDigests.remove(pooled);
+						}
+						grammarPool.putGrammar(sg);
+						documentDigests.put(sg, digests);
+					}
+				}
+			}
+		}
+	}
+
+	public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+		return retrieveGrammar(desc, null);
+	}
+
+	Grammar retrieveGrammar(XMLGrammarDescription desc,
+			XMLEntityResolver entityResolver) {
+		if (desc instanceof XSDDescription
+				&& ((XSDDescription) desc).getContextType() == XSDDescription.CONTEXT_IMPORT
+				&& ((XSDDescription) desc).getTargetNamespace() != null) {
+			SchemaGrammar sg = (SchemaGrammar) grammarPool
+					.retrieveGrammar(desc);
+			if (sg != null
+					&& !isUpToDate(sg,
+							((XSDDescription) desc).getExpandedSystemId(),
+							entityResolver)) {
+				// other location or modified document
+				invalidate(sg.getTargetNamespace());
+				sg = null;
+			}
+			return sg;
+		} else {
+			// root documents are always parsed
+			return null;
+		}
+	}
+
+	/**
+	 * Returns a view of this pool that reads schema documents with the given
+	 * entity resolver when validating pooled grammars.
+	 * 
+	 * @param entityResolver
+	 *            entity resolver of the build or <code>null</code>
+	 * @return grammar pool to be used by the build
+	 */
+	XMLGrammarPool getGrammarPool(final XMLEntityResolver entityResolver) {
+		if (entityResolver == null) {
+			return this;
+		}
+		return new XMLGrammarPool() {
+			public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+				return SchemaGrammarPool.this
+						.retrieveInitialGrammarSet(grammarType);
+			}
+
+			public void cacheGrammars(String grammarType, Grammar[] grammars) {
+				SchemaGrammarPool.this.cacheGrammars(grammarType, grammars,
+						entityResolver);
+			}
+
+			public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+				return SchemaGrammarPool.this.retrieveGrammar(desc,
+						entityResolver);
+			}
+
+			public void lockPool() {
+				SchemaGrammarPool.this.lockPool();
+			}
+
+			public void unlockPool() {
+				SchemaGrammarPool.this.unlockPool();
+			}
+
+			public void clear() {
+				SchemaGrammarPool.this.clear();
+			}
+		};
+	}
+
+	/*
+	 * Digests of the documents of the grammar and of all grammars imported by
+	 * it, directly or indirectly.
+	 */
+	private static boolean addDocumentDigests(SchemaGrammar sg,
+			XMLEntityResolver entityResolver, Map<String, String> digests,
+			Set<SchemaGrammar> handled) {
+		if (!handled.add(sg)) {
+			return true;
+		}
+		StringList locations = sg.getDocumentLocations();
+		for (int i = 0; i < locations.getLength(); i++) {
+			String location = locations.item(i);
+			String digest = SchemaDigest.digestDocument(location,
+					entityResolver);
+			if (digest == null) {
+				// cannot be validated later on
+				return false;
+			}
+			digests.put(location, digest);
+		}
+		Vector<?> imported = sg.getImportedGrammars();
+		if (imported != null) {
+			for (Object o : imported) {
+				if (!addDocumentDigests((SchemaGrammar) o, entityResolver,
+						digests, handled)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Whether the pooled grammar has been read from the given location and
+	 * none of its documents changed since.
+	 */
+	private boolean isUpToDate(SchemaGrammar sg, String expandedSystemId,
+			XMLEntityResolver entityResolver) {
+		Map<String, String> digests;
+		synchronized (grammarPool) {
+			digests = documentDigests.get(sg);
+		}
+		if (digests == null
+				|| (expandedSystemId != null && !sg.getDocumentLocations()
+						.contains(expandedSystemId))) {
+			return false;
+		}
+		for (Map.Entry<String, String> e : digests.entrySet()) {
+			if (!e.getValue().equals(
+					SchemaDigest.digestDocument(e.getKey(), entityResolver))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public void lockPool() {
+		grammarPool.lockPool();
+	}
+
+	public void unlockPool() {
+		grammarPool.unlockPool();
+	}
+
+	/**
+	 * Returns the target namespaces of all pooled grammars.
+	 * 
+	 * @return pooled namespaces
+	 */
+	public List<String> getNamespaces() {
+		List<String> namespaces = new ArrayList<String>();
+		for (Grammar g : grammarPool
+				.retrieveInitialGrammarSet(XMLGrammarDescription.XML_SCHEMA)) {
+			namespaces.add(((SchemaGrammar) g).getTargetNamespace());
+		}
+		return namespaces;
+	}
+
+	/**
+	 * Removes the grammar of the given namespace and all pooled grammars
+	 * importing it, directly or indirectly.
+	 * 
+	 * <p>
+	 * Grammars without target namespace are not pooled themselves, however
+	 * invalidating the empty namespace removes the pooled grammars importing
+	 * a schema without target namespace.
+	 * </p>
+	 * 
+	 * @param namespace
+	 *            target namespace, <code>null</code> or "" for none
+	 * @return whether a grammar has been removed
+	 */
+	public boolean invalidate(String namespace) {
+		if (namespace != null && namespace.length() == 0) {
+			// SchemaGrammar.getTargetNamespace() is null for no namespace
+			namespace = null;
+		}
+		synchronized (grammarPool) {
+			Grammar[] grammars = grammarPool
+					.retrieveInitialGrammarSet(XMLGrammarDescription.XML_SCHEMA);
+			Set<String> invalid = new HashSet<String>();
+			invalid.add(namespace);
+			// importing grammars
+			boolean added;
+			do {
+				added = false;
+				for (Grammar g : grammars) {
+					SchemaGrammar sg = (SchemaGrammar) g;
+					if (!invalid.contains(sg.getTargetNamespace())
+							&& importsAny(sg, invalid)) {
+						invalid.add(sg.getTargetNamespace());
+						added = true;
+					}
+				}
+			} while (added);
+
+			boolean removed = false;
+			for (Grammar g : grammars) {
+				SchemaGrammar sg = (SchemaGrammar) g;
+				if (invalid.contains(sg.getTargetNamespace())) {
+					removed |= grammarPool.removeGrammar(sg
+							.getGrammarDescription()) != null;
+					documentDigests.remove(sg);
+				}
+			}
+			return removed;
+		}
+	}
+
+	private static boolean importsAny(SchemaGrammar sg, Set<String> namespaces) {
+		Vector<?> imported = sg.getImportedGrammars();
+		if (imported != null) {
+			for (Object o : imported) {
+				if (namespaces.contains(((SchemaGrammar) o)
+						.getTargetNamespace())) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	public void clear() {
+		synchronized (grammarPool) {
+			grammarPool.clear();
+			documentDigests.clear();
+		}
+	}
+
+}
@@ -30,11 +30,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.SortedSet;
 import java.util.TreeSet;
 
 import javax.xml.namespace.QName;
@@ -83,7 +85,6 @@ import com.siemens.ct.exi.core.datatype.RestrictedCharacterSetDatatype;
 import com.siemens.ct.exi.core.datatype.StringDatatype;
 import com.siemens.ct.exi.core.datatype.UnsignedIntegerDatatype;
 import com.siemens.ct.exi.core.datatype.WhiteSpace;
-import com.siemens.ct.exi.core.datatype.charset.CodePointCharacterSet;
 import com.siemens.ct.exi.core.datatype.charset.RestrictedCharacterSet;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.grammars.Grammars;
@@ -126,6 +127,7 @@ import com.siemens.ct.exi.core.values.FloatValue;
 import com.siemens.ct.exi.core.values.IntegerValue;
 import com.siemens.ct.exi.core.values.StringValue;
 import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.grammars.DatatypeInterner.DatatypeKey;
 import com.siemens.ct.exi.grammars.regex.EXIRegularExpression;
 
 /**
@@ -148,8 +150,8 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	protected Map<QName, SchemaInformedFirstStartTagGrammar> grammarTypes;
 
 	// local-names (pre-initializing LocalName Partition)
-	// uri -> localNames
-	protected Map<String, List<String>> schemaLocalNames;
+	// uri -> localNames (sorted)
+	protected Map<String, Set<String>> schemaLocalNames;
 
 	// pool for attribute-declaration of Attribute events
 	protected Map<XSAttributeDeclaration, Attribute> attributePool;
@@ -157,6 +159,12 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	// pool for datatypes
 	protected Map<XSSimpleTypeDefinition, Datatype> datatypePool;
 
+	// structural datatype key --> datatype of the current build
+	protected Map<DatatypeKey, Datatype> internedDatatypes;
+
+	// optional datatype interner shared between builds
+	protected DatatypeInterner datatypeInterner;
+
 	// unique named elements
 	protected Map<QName, List<XSElementDeclaration>> uniqueNamedElements;
 
@@ -170,6 +178,123 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	//
 	GrammarUriContext[] grammarUriContexts;
 
+	// namespace --> uri context, built once per toGrammars()
+	protected Map<String, GrammarUriContext> uriContextIndex;
+
+	// qualified name --> qname context, built once per toGrammars()
+	protected Map<QName, QNameContext> qnameContextIndex;
+
+	// optional shared built-in XML Schema type grammars
+	BuiltInTypeGrammars builtInTypeGrammars;
+
+	// type and element grammars are translated on first access
+	protected boolean lazyGrammars;
+
+	// attribute use grammars are shared between types (opt-in)
+	protected boolean shareAttributeGrammars;
+
+	// attribute-chain suffix --> attribute use grammar (shared mode)
+	protected Map<AttributeGrammarKey, SchemaInformedStartTagGrammar> attributeGrammars;
+
+	// content grammar --> element content grammar (shared mode)
+	protected Map<SchemaInformedGrammar, SchemaInformedGrammar> elementContentGrammars;
+
+	// built-In mapping, shared by all builders
+	protected static final Map<QName, QName> BUILT_IN_DATATYPE_MAPPING;
+
+	static {
+		Map<QName, QName> mapping = new HashMap<QName, QName>();
+		// Binary
+		mapping.put(BuiltIn.XSD_BASE64BINARY, BuiltIn.XSD_BASE64BINARY);
+		mapping.put(BuiltIn.XSD_HEXBINARY, BuiltIn.XSD_HEXBINARY);
+		// Boolean
+		mapping.put(BuiltIn.XSD_BOOLEAN, BuiltIn.XSD_BOOLEAN);
+		// Date-Time
+		mapping.put(BuiltIn.XSD_DATETIME, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_TIME, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_DATE, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_GYEARMONTH, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_GYEAR, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_GMONTHDAY, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_GDAY, BuiltIn.XSD_DATETIME);
+		mapping.put(BuiltIn.XSD_GMONTH, BuiltIn.XSD_DATETIME);
+		// Decimal
+		mapping.put(BuiltIn.XSD_DECIMAL, BuiltIn.XSD_DECIMAL);
+		// Double/Float
+		mapping.put(BuiltIn.XSD_FLOAT, BuiltIn.XSD_FLOAT);
+		mapping.put(BuiltIn.XSD_DOUBLE, BuiltIn.XSD_DOUBLE);
+		// Integer
+		mapping.put(BuiltIn.XSD_INTEGER, BuiltIn.XSD_INTEGER);
+		// String
+		mapping.put(BuiltIn.XSD_STRING, BuiltIn.XSD_STRING);
+		// unknown
+		mapping.put(BuiltIn.XSD_ANY_SIMPLE_TYPE, BuiltIn.XSD_STRING);
+		BUILT_IN_DATATYPE_MAPPING = Collections.unmodifiableMap(mapping);
+	}
+
+	// built-in integer types by local name, shared by all builders
+	protected static final Map<String, BuiltInIntegerType> BUILT_IN_INTEGER_TYPES;
+
+	static {
+		Map<String, BuiltInIntegerType> types = new HashMap<String, BuiltInIntegerType>();
+		// big
+		types.put("integer", new BuiltInIntegerType(IntegerType.INTEGER_BIG,
+				false));
+		types.put("nonPositiveInteger", new BuiltInIntegerType(
+				IntegerType.INTEGER_BIG, false));
+		types.put("negativeInteger", new BuiltInIntegerType(
+				IntegerType.INTEGER_BIG, false));
+		// unsigned big
+		types.put("nonNegativeInteger", new BuiltInIntegerType(
+				IntegerType.UNSIGNED_INTEGER_BIG, false));
+		types.put("positiveInteger", new BuiltInIntegerType(
+				IntegerType.UNSIGNED_INTEGER_BIG, false));
+		// int 64
+		types.put("long", new BuiltInIntegerType(IntegerType.INTEGER_64, true));
+		types.put("unsignedLong", new BuiltInIntegerType(
+				IntegerType.UNSIGNED_INTEGER_64, false));
+		// int 32
+		types.put("int", new BuiltInIntegerType(IntegerType.INTEGER_32, true));
+		types.put("unsignedInt", new BuiltInIntegerType(
+				IntegerType.UNSIGNED_INTEGER_32, true));
+		// int 16
+		types.put("short",
+				new BuiltInIntegerType(IntegerType.INTEGER_16, true));
+		types.put("unsignedShort", new BuiltInIntegerType(
+				IntegerType.UNSIGNED_INTEGER_16, true));
+		// int 8
+		types.put("byte", new BuiltInIntegerType(IntegerType.INTEGER_8, true));
+		types.put("unsignedByte", new BuiltInIntegerType(
+				IntegerType.UNSIGNED_INTEGER_8, true));
+		BUILT_IN_INTEGER_TYPES = Collections.unmodifiableMap(types);
+	}
+
+	// bounds used when no facet restricts an integer
+	private static final BigInteger UNBOUNDED_INTEGER_MIN = new BigInteger(
+			"-9999999999999999999999999999999999999999");
+	private static final BigInteger UNBOUNDED_INTEGER_MAX = new BigInteger(
+			"9999999999999999999999999999999999999999");
+
+	// long bounds without sign
+	private static final String LONG_MAX_DIGITS = Long
+			.toString(Long.MAX_VALUE);
+	private static final String LONG_MIN_DIGITS = Long.toString(
+			Long.MIN_VALUE).substring(1);
+
+	/*
+	 * Built-in integer type and whether its value space, and hence the value
+	 * of any of its bound facets, fits into a long
+	 */
+	protected static final class BuiltInIntegerType {
+		final IntegerType integerType;
+		final boolean longValueSpace;
+
+		BuiltInIntegerType(IntegerType integerType, boolean longValueSpace) {
+			this.integerType = integerType;
+			this.longValueSpace = longValueSpace;
+		}
+	}
+
 	protected XSDGrammarsBuilder() {
 		super();
 
@@ -193,44 +318,87 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		return new XSDGrammarsBuilder();
 	}
 
+	void setBuiltInTypeGrammars(BuiltInTypeGrammars builtInTypeGrammars) {
+		this.builtInTypeGrammars = builtInTypeGrammars;
+	}
+
+	/**
+	 * Lazy grammars translate the grammar of a type or element declaration
+	 * not before it is accessed for the first time (e.g., while coding an
+	 * EXI stream). Translation is thread-safe and done only once. A grammar
+	 * that cannot be translated fails the access with a
+	 * {@link LazyGrammarException} carrying the {@link EXIException}, the
+	 * next access tries again.
+	 * 
+	 * <p>
+	 * Note: The builder is bound to the grammars returned by
+	 * {@link #toGrammars()} and must not be used for loading other schemas.
+	 * </p>
+	 * 
+	 * @param lazyGrammars
+	 *            translate grammars on first access
+	 */
+	public void setLazyGrammars(boolean lazyGrammars) {
+		this.lazyGrammars = lazyGrammars;
+	}
+
+	public boolean isLazyGrammars() {
+		return lazyGrammars;
+	}
+
+	/**
+	 * Shares attribute use grammars with identical attribute-chain suffixes
+	 * (same attributes, attribute wildcard and content) between types. Schemas
+	 * reusing attribute groups with many optional attributes then need far
+	 * fewer grammars and productions.
+	 * 
+	 * <p>
+	 * Note: Shared grammars are equivalent but no longer distinct objects per
+	 * type.
+	 * </p>
+	 * 
+	 * @param shareAttributeGrammars
+	 *            share attribute use grammars
+	 */
+	public void setShareAttributeGrammars(boolean shareAttributeGrammars) {
+		this.shareAttributeGrammars = shareAttributeGrammars;
+	}
+
+	public boolean isShareAttributeGrammars() {
+		return shareAttributeGrammars;
+	}
+
+	/**
+	 * Sets the interner sharing structurally equal datatypes between builds.
+	 * Within a build equal datatypes are always shared. Datatypes are only
+	 * added to the interner by builds of a {@link GrammarFactory}, which
+	 * share the built-in type grammars (see {@link DatatypeInterner}).
+	 * 
+	 * @param datatypeInterner
+	 *            interner or <code>null</code> to share datatypes within a
+	 *            build only
+	 */
+	public void setDatatypeInterner(DatatypeInterner datatypeInterner) {
+		this.datatypeInterner = datatypeInterner;
+	}
+
+	public DatatypeInterner getDatatypeInterner() {
+		return datatypeInterner;
+	}
+
 	@Override
 	protected void initOnce() {
 		super.initOnce();
 
 		grammarTypes = new HashMap<QName, SchemaInformedFirstStartTagGrammar>();
-		schemaLocalNames = new HashMap<String, List<String>>();
+		schemaLocalNames = new HashMap<String, Set<String>>();
 		attributePool = new HashMap<XSAttributeDeclaration, Attribute>();
 		datatypePool = new HashMap<XSSimpleTypeDefinition, Datatype>();
+		internedDatatypes = new HashMap<DatatypeKey, Datatype>();
+		attributeGrammars = new HashMap<AttributeGrammarKey, SchemaInformedStartTagGrammar>();
+		elementContentGrammars = new IdentityHashMap<SchemaInformedGrammar, SchemaInformedGrammar>();
 
-		/*
-		 * Datatype mappings
-		 */
-		datatypeMapping = new HashMap<QName, QName>();
-		// Binary
-		datatypeMapping.put(BuiltIn.XSD_BASE64BINARY, BuiltIn.XSD_BASE64BINARY);
-		datatypeMapping.put(BuiltIn.XSD_HEXBINARY, BuiltIn.XSD_HEXBINARY);
-		// Boolean
-		datatypeMapping.put(BuiltIn.XSD_BOOLEAN, BuiltIn.XSD_BOOLEAN);
-		// Date-Time
-		datatypeMapping.put(BuiltIn.XSD_DATETIME, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_TIME, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_DATE, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_GYEARMONTH, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_GYEAR, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_GMONTHDAY, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_GDAY, BuiltIn.XSD_DATETIME);
-		datatypeMapping.put(BuiltIn.XSD_GMONTH, BuiltIn.XSD_DATETIME);
-		// Decimal
-		datatypeMapping.put(BuiltIn.XSD_DECIMAL, BuiltIn.XSD_DECIMAL);
-		// Double/Float
-		datatypeMapping.put(BuiltIn.XSD_FLOAT, BuiltIn.XSD_FLOAT);
-		datatypeMapping.put(BuiltIn.XSD_DOUBLE, BuiltIn.XSD_DOUBLE);
-		// Integer
-		datatypeMapping.put(BuiltIn.XSD_INTEGER, BuiltIn.XSD_INTEGER);
-		// String
-		datatypeMapping.put(BuiltIn.XSD_STRING, BuiltIn.XSD_STRING);
-		// unknown
-		datatypeMapping.put(BuiltIn.XSD_ANY_SIMPLE_TYPE, BuiltIn.XSD_STRING);
+		datatypeMapping = BUILT_IN_DATATYPE_MAPPING;
 	}
 
 	@Override
@@ -241,6 +409,12 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		schemaLocalNames.clear();
 		attributePool.clear();
 		datatypePool.clear();
+		internedDatatypes.clear();
+		attributeGrammars.clear();
+		elementContentGrammars.clear();
+		// empty content is its own element content
+		elementContentGrammars.put(SIMPLE_END_ELEMENT_RULE,
+				SIMPLE_END_ELEMENT_RULE);
 
 		uniqueNamedElements = null;
 		elementFragment0 = null;
@@ -269,19 +443,51 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	}
 
 	protected StartElement createStartElement(QName qname) {
-		QNameContext qnameContext = getQNameContext(qname.getNamespaceURI(),
-				qname.getLocalPart(), grammarUriContexts);
+		QNameContext qnameContext = getQNameContext(qname);
 		StartElement se = new StartElement(qnameContext);
 		return se;
 	}
 
 	protected StartElementNS createStartElementNS(String uri) {
-		GrammarUriContext uriContext = getUriContext(uri, grammarUriContexts);
+		GrammarUriContext uriContext = getUriContext(uri);
 		StartElementNS seNS = new StartElementNS(
 				uriContext.getNamespaceUriID(), uriContext.getNamespaceUri());
 		return seNS;
 	}
 
+	protected void initContextIndex() {
+		uriContextIndex = new HashMap<String, GrammarUriContext>();
+		qnameContextIndex = new HashMap<QName, QNameContext>();
+		for (GrammarUriContext guc : grammarUriContexts) {
+			uriContextIndex.put(guc.getNamespaceUri(), guc);
+			for (int k = 0; k < guc.getNumberOfQNames(); k++) {
+				QNameContext qnc = guc.getQNameContext(k);
+				qnameContextIndex.put(qnc.getQName(), qnc);
+			}
+		}
+	}
+
+	protected QNameContext getQNameContext(QName qname) {
+		QNameContext qnc = qnameContextIndex.get(qname);
+		if (qnc == null) {
+			// unknown qname
+			qnc = getQNameContext(qname.getNamespaceURI(),
+					qname.getLocalPart(), grammarUriContexts);
+		}
+		return qnc;
+	}
+
+	protected GrammarUriContext getUriContext(String namespaceUri) {
+		GrammarUriContext guc = uriContextIndex
+				.get(namespaceUri == null ? Constants.XML_NULL_NS_URI
+						: namespaceUri);
+		if (guc == null) {
+			// unknown uri
+			guc = getUriContext(namespaceUri, grammarUriContexts);
+		}
+		return guc;
+	}
+
 	protected static QNameContext getQNameContext(String namespaceUri,
 			String localName, GrammarUriContext[] grammarUriContexts) {
 		namespaceUri = namespaceUri == null ? Constants.XML_NULL_NS_URI
@@ -321,15 +527,14 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 
 	// QName valueType
 	protected Attribute createAttribute(QName qname, Datatype datatype) {
-		QNameContext qnameContext = getQNameContext(qname.getNamespaceURI(),
-				qname.getLocalPart(), grammarUriContexts);
+		QNameContext qnameContext = getQNameContext(qname);
 		Attribute at = new Attribute(qnameContext, datatype); // valueType,
 
 		return at;
 	}
 
 	protected AttributeNS createAttributeNS(String uri) {
-		GrammarUriContext uriContext = getUriContext(uri, grammarUriContexts);
+		GrammarUriContext uriContext = getUriContext(uri);
 		AttributeNS atNS = new AttributeNS(uriContext.getNamespaceUriID(),
 				uriContext.getNamespaceUri());
 		return atNS;
@@ -666,13 +871,109 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		return elementFragment0;
 	}
 
+	/**
+	 * Start element whose grammar is translated on first access.
+	 */
+	static class LazyStartElement extends StartElement {
+		static final int PENDING = 0;
+		static final int TRANSLATING = 1;
+		static final int MATERIALIZED = 2;
+
+		final XSElementDeclaration elementDeclaration;
+		final XSDGrammarsBuilder grammarBuilder;
+		// changed while holding the grammarBuilder lock
+		volatile int state;
+
+		LazyStartElement(QNameContext qnc,
+				XSElementDeclaration elementDeclaration,
+				XSDGrammarsBuilder grammarBuilder) {
+			super(qnc);
+			this.elementDeclaration = elementDeclaration;
+			this.grammarBuilder = grammarBuilder;
+		}
+
+		@Override
+		public Grammar getGrammar() {
+			if (state != MATERIALIZED) {
+				grammarBuilder.materializeElementGrammar(this);
+			}
+			return super.getGrammar();
+		}
+	}
+
+	/**
+	 * QName context whose type grammar is translated on first access.
+	 */
+	static class LazyQNameContext extends QNameContext {
+		final XSDGrammarsBuilder grammarBuilder;
+		// type to be translated, changed while holding the grammarBuilder lock
+		volatile XSTypeDefinition typeDefinition;
+
+		LazyQNameContext(int namespaceUriID, int localNameID, QName qName,
+				XSDGrammarsBuilder grammarBuilder) {
+			super(namespaceUriID, localNameID, qName);
+			this.grammarBuilder = grammarBuilder;
+		}
+
+		@Override
+		public SchemaInformedFirstStartTagGrammar getTypeGrammar() {
+			if (typeDefinition != null) {
+				grammarBuilder.materializeTypeGrammar(this);
+			}
+			return super.getTypeGrammar();
+		}
+	}
+
+	/*
+	 * Attribute use grammar identity: following grammar, element content,
+	 * attribute (null for the content grammar join) and wildcard
+	 */
+	static class AttributeGrammarKey {
+		protected final SchemaInformedGrammar next;
+		protected final SchemaInformedGrammar elementContent;
+		protected final Attribute attribute;
+		protected final boolean required;
+		protected final XSWildcard attributeWC;
+
+		public AttributeGrammarKey(SchemaInformedGrammar next,
+				SchemaInformedGrammar elementContent, Attribute attribute,
+				boolean required, XSWildcard attributeWC) {
+			this.next = next;
+			this.elementContent = elementContent;
+			this.attribute = attribute;
+			this.required = required;
+			this.attributeWC = attributeWC;
+		}
+
+		public boolean equals(Object o) {
+			if (o instanceof AttributeGrammarKey) {
+				AttributeGrammarKey other = (AttributeGrammarKey) o;
+				return next == other.next
+						&& elementContent == other.elementContent
+						&& attribute == other.attribute
+						&& required == other.required
+						&& attributeWC == other.attributeWC;
+			}
+			return false;
+		}
+
+		public int hashCode() {
+			int h = System.identityHashCode(next);
+			h = 31 * h + System.identityHashCode(elementContent);
+			h = 31 * h + System.identityHashCode(attribute);
+			h = 31 * h + System.identityHashCode(attributeWC);
+			return 2 * h + (required ? 1 : 0);
+		}
+	}
+
 	static class NamespaceUriEntry implements Comparable<NamespaceUriEntry> {
 		public final String namespaceUri;
-		public final List<String> localNames;
+		// lexicographically sorted, no duplicates
+		public final SortedSet<String> localNames;
 
 		public NamespaceUriEntry(String namespaceUri) {
 			this.namespaceUri = namespaceUri;
-			this.localNames = new ArrayList<String>();
+			this.localNames = new TreeSet<String>();
 		}
 
 		public int compareTo(NamespaceUriEntry o) {
@@ -708,33 +1009,30 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	static class StringTableEntries extends ArrayList<NamespaceUriEntry> {
 		private static final long serialVersionUID = 1L;
 		private final XSModel xsModel;
+		// namespace uri -> entry
+		private final Map<String, NamespaceUriEntry> entries;
 
 		public StringTableEntries(XSModel xsModel) {
 			super();
 			this.xsModel = xsModel;
+			this.entries = new HashMap<String, NamespaceUriEntry>();
 			// init default entries
-			this.add(new NamespaceUriEntry(Constants.XML_NULL_NS_URI));
-			NamespaceUriEntry nsue1 = new NamespaceUriEntry(
+			checkNamespaceUriEntry(Constants.XML_NULL_NS_URI);
+			NamespaceUriEntry nsue1 = checkNamespaceUriEntry(
 					Constants.XML_NS_URI);
 			nsue1.localNames.add("base");
 			nsue1.localNames.add("id");
 			nsue1.localNames.add("lang");
 			nsue1.localNames.add("space");
-			this.add(nsue1);
-			NamespaceUriEntry nsue2 = new NamespaceUriEntry(
+			NamespaceUriEntry nsue2 = checkNamespaceUriEntry(
 					Constants.XML_SCHEMA_INSTANCE_NS_URI);
 			nsue2.localNames.add("nil");
 			nsue2.localNames.add("type");
-			this.add(nsue2);
-			this.add(new NamespaceUriEntry(Constants.XML_SCHEMA_NS_URI));
+			checkNamespaceUriEntry(Constants.XML_SCHEMA_NS_URI);
 			// init entries
 			this.initializeEntries();
-			// sort entries
+			// sort entries (local names are kept sorted on insertion)
 			Collections.sort(this);
-			for (int i = 0; i < this.size(); i++) {
-				NamespaceUriEntry nsue = this.get(i);
-				Collections.sort(nsue.localNames);
-			}
 		}
 
 		private void initializeEntries() {
@@ -779,16 +1077,13 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		private NamespaceUriEntry checkNamespaceUriEntry(String namespaceUri) {
 			namespaceUri = namespaceUri == null ? Constants.XML_NULL_NS_URI
 					: namespaceUri;
-			for (int i = 0; i < this.size(); i++) {
-				NamespaceUriEntry nsue = this.get(i);
-				if (nsue.namespaceUri.equals(namespaceUri)) {
-					return nsue;
-				}
+			NamespaceUriEntry nsue = entries.get(namespaceUri);
+			if (nsue == null) {
+				// not found
+				nsue = new NamespaceUriEntry(namespaceUri);
+				entries.put(namespaceUri, nsue);
+				this.add(nsue);
 			}
-
-			// not found
-			NamespaceUriEntry nsue = new NamespaceUriEntry(namespaceUri);
-			this.add(nsue);
 			return nsue;
 		}
 
@@ -796,9 +1091,7 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			NamespaceUriEntry nsue = checkNamespaceUriEntry(namespaceUri);
 
 			assert (localName != null);
-			if (!nsue.localNames.contains(localName)) {
-				nsue.localNames.add(localName);
-			}
+			nsue.localNames.add(localName);
 		}
 
 		private void handleAttributeDeclaration(XSAttributeDeclaration ad) {
@@ -938,14 +1231,24 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			throw new EXIException(sb.toString());
 		}
 
+		startBuildClock();
+		long start = phaseStart();
 		// grammar string entries
 		StringTableEntries ste = new StringTableEntries(xsModel);
 		// System.out.println("UriSize: " + ste.size());
 		grammarUriContexts = new GrammarUriContext[ste.size()];
+		GrammarUriContext sharedUriContext = getSharedBuiltInUriContext(ste);
 		int qNameID = 0;
 		for (int i = 0; i < ste.size(); i++) {
 			NamespaceUriEntry nsue = ste.get(i);
 			String namespaceUri = nsue.namespaceUri;
+			if (sharedUriContext != null
+					&& sharedUriContext.getNamespaceUriID() == i) {
+				// built-in types are already translated
+				grammarUriContexts[i] = sharedUriContext;
+				qNameID += nsue.localNames.size();
+				continue;
+			}
 			// prefixes
 			String[] prefixes;
 			if (Constants.XML_NULL_NS_URI.equals(namespaceUri)) {
@@ -960,16 +1263,18 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			}
 
 			// localName contexts
-			List<String> localNames = nsue.localNames;
+			SortedSet<String> localNames = nsue.localNames;
 			QNameContext[] grammarLocalNames = new QNameContext[localNames
 					.size()];
 
-			for (int k = 0; k < localNames.size(); k++) {
-				String localName = localNames.get(k);
+			int k = 0;
+			for (String localName : localNames) {
 				// add entry
 				QName qname = new QName(namespaceUri, localName);
-				grammarLocalNames[k] = new QNameContext(i, k, qname);
+				grammarLocalNames[k] = lazyGrammars ? new LazyQNameContext(i,
+						k, qname, this) : new QNameContext(i, k, qname);
 				qNameID++;
+				k++;
 			}
 
 			// create grammar uri context
@@ -977,15 +1282,28 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 					grammarLocalNames, prefixes);
 
 		}
+		initContextIndex();
+		addPhaseTime(BuildPhase.STRING_TABLE_ENTRIES, start);
+
+		if (forkJoinPool != null && !lazyGrammars) {
+			start = phaseStart();
+			// content models explored in parallel, translated in order
+			exploreContentModels();
+			addPhaseTime(BuildPhase.CONTENT_MODELS, start);
+		}
 
 		// updates global elements, attributes and types
 		for (int i = 0; i < grammarUriContexts.length; i++) {
 			GrammarUriContext guc = grammarUriContexts[i];
+			if (guc == sharedUriContext) {
+				continue;
+			}
 			for (int k = 0; k < guc.getNumberOfQNames(); k++) {
 				QNameContext qnc = guc.getQNameContext(k);
 				String localName = qnc.getLocalName();
 				String namespace = guc.getNamespaceUri();
 
+				start = phaseStart();
 				// global element
 				XSElementDeclaration globalElementDecl = xsModel
 						.getElementDeclaration(localName, namespace);
@@ -1002,11 +1320,15 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 							.getAttribute(globalAttributeDecl);
 					qnc.setGlobalAttribute(grammarGlobalAttribute);
 				}
+				addPhaseTime(BuildPhase.GLOBAL_ELEMENTS, start);
 
+				start = phaseStart();
 				// global types
 				XSTypeDefinition typeDef = xsModel.getTypeDefinition(localName,
 						namespace);
-				if (typeDef != null) {
+				if (typeDef != null && lazyGrammars) {
+					((LazyQNameContext) qnc).typeDefinition = typeDef;
+				} else if (typeDef != null) {
 					SchemaInformedFirstStartTagGrammar fstr = this
 							.translateTypeDefinitionToFSA(typeDef);
 					qnc.setTypeGrammar(fstr);
@@ -1023,6 +1345,7 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 					// //System.out.println(qnc.getQName() + " --> " + dt);
 					// }
 				}
+				addPhaseTime(BuildPhase.GLOBAL_TYPES, start);
 
 				// // (direct) simple sub-types vs. baseType
 				// if (typeDef != null
@@ -1085,9 +1408,18 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			}
 		}
 
+		if (lazyGrammars) {
+			start = phaseStart();
+			// all declarations contribute to fragment grammars
+			initLazyDeclarations();
+			addPhaseTime(BuildPhase.CONTENT_MODELS, start);
+		}
+
 		// initialize grammars --> global element)
 		List<StartElement> globalElements = initGrammars();
+		exploredContentModels = null;
 
+		start = phaseStart();
 		// schema declared elements --> fragment grammars
 		List<StartElement> fragmentElements = getFragmentElements();
 
@@ -1148,15 +1480,70 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		/*
 		 * create schema informed grammar
 		 */
+		addPhaseTime(BuildPhase.FRAGMENT_GRAMMARS, start);
+
+		start = phaseStart();
+		SchemaInformedGrammar elementFragmentGrammar = this
+				.getSchemaInformedElementFragmentGrammar();
+		addPhaseTime(BuildPhase.ELEMENT_FRAGMENT_GRAMMAR, start);
+
 		GrammarContext grammarContext = new GrammarContext(grammarUriContexts,
 				qNameID);
 		SchemaInformedGrammars sig = new SchemaInformedGrammars(grammarContext,
-				documentGrammar, fragmentGrammar,
-				this.getSchemaInformedElementFragmentGrammar());
+				documentGrammar, fragmentGrammar, elementFragmentGrammar);
+
+		stopBuildClock();
+		reportBuild();
 
 		return sig;
 	}
 
+	/**
+	 * Returns the shared XML Schema built-in uri context if the schema does
+	 * not add anything to the XML Schema namespace. Type grammars and
+	 * datatypes of the built-in types are taken over from the shared
+	 * information.
+	 * 
+	 * @param ste
+	 *            string table entries of the schema
+	 * @return shared uri context or <code>null</code>
+	 */
+	protected GrammarUriContext getSharedBuiltInUriContext(
+			StringTableEntries ste) {
+		if (builtInTypeGrammars == null) {
+			return null;
+		}
+		GrammarUriContext guc = builtInTypeGrammars.xsdUriContext;
+		NamespaceUriEntry nsue = ste.get(guc.getNamespaceUriID());
+		if (!guc.getNamespaceUri().equals(nsue.namespaceUri)
+				|| guc.getNumberOfQNames() != nsue.localNames.size()) {
+			return null;
+		}
+		Iterator<String> iterLocalNames = nsue.localNames.iterator();
+		for (int k = 0; k < guc.getNumberOfQNames(); k++) {
+			String localName = guc.getQNameContext(k).getLocalName();
+			String namespace = guc.getNamespaceUri();
+			if (!localName.equals(iterLocalNames.next())
+					|| xsModel.getElementDeclaration(localName, namespace) != null
+					|| xsModel.getAttributeDeclaration(localName, namespace) != null) {
+				return null;
+			}
+			XSTypeDefinition typeDef = xsModel.getTypeDefinition(localName,
+					namespace);
+			if (typeDef != null
+					&& typeDef.getTypeCategory() == XSTypeDefinition.SIMPLE_TYPE
+					&& !builtInTypeGrammars.datatypes.containsKey(typeDef)) {
+				// different built-in type instances
+				return null;
+			}
+		}
+
+		grammarTypes.putAll(builtInTypeGrammars.typeGrammars);
+		datatypePool.putAll(builtInTypeGrammars.datatypes);
+
+		return guc;
+	}
+
 	// NOT EQUAL
 	// "" [empty string],
 	// "http://www.w3.org/XML/1998/namespace",
@@ -1217,47 +1604,46 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	 * lexicographically.
 	 */
 	protected void addLocalNameStringEntry(String namespaceURI, String localName) {
-		// fetch localName list
-		List<String> localNameList = addNamespaceStringEntry(namespaceURI);
-
-		// check localName value presence
-		if (!localNameList.contains(localName)) {
-			localNameList.add(localName);
-		}
+		// fetch sorted localName set (ignores duplicates)
+		addNamespaceStringEntry(namespaceURI).add(localName);
 	}
 
-	protected List<String> addNamespaceStringEntry(String namespaceURI) {
+	protected Set<String> addNamespaceStringEntry(String namespaceURI) {
 		if (namespaceURI == null) {
 			namespaceURI = Constants.XML_NULL_NS_URI;
 		}
-		// fetch localName list
-		List<String> localNameList;
-		if (schemaLocalNames.containsKey(namespaceURI)) {
-			localNameList = schemaLocalNames.get(namespaceURI);
-		} else {
-			localNameList = new ArrayList<String>();
-			schemaLocalNames.put(namespaceURI, localNameList);
+		// fetch localName set
+		Set<String> localNameSet = schemaLocalNames.get(namespaceURI);
+		if (localNameSet == null) {
+			localNameSet = new TreeSet<String>();
+			schemaLocalNames.put(namespaceURI, localNameSet);
 		}
 
-		return localNameList;
+		return localNameSet;
 	}
 
 	protected List<StartElement> initGrammars() throws EXIException {
 		List<StartElement> globalElements = new ArrayList<StartElement>();
 
 		// global type definitions
-		XSNamedMap types = xsModel.getComponents(XSConstants.TYPE_DEFINITION);
-		for (int i = 0; i < types.getLength(); i++) {
-			XSTypeDefinition td = (XSTypeDefinition) types.item(i);
-
-			// QName name = new QName(td.getNamespace(), td.getName());
-			SchemaInformedFirstStartTagGrammar sir = translateTypeDefinitionToFSA(td);
-			// types cannot be nillable nor typable (only elements!)
-			assert (!sir.isNillable());
-			assert (!sir.isTypeCastable());
+		long start = phaseStart();
+		if (!lazyGrammars) {
+			XSNamedMap types = xsModel
+					.getComponents(XSConstants.TYPE_DEFINITION);
+			for (int i = 0; i < types.getLength(); i++) {
+				XSTypeDefinition td = (XSTypeDefinition) types.item(i);
+
+				// QName name = new QName(td.getNamespace(), td.getName());
+				SchemaInformedFirstStartTagGrammar sir = translateTypeDefinitionToFSA(td);
+				// types cannot be nillable nor typable (only elements!)
+				assert (!sir.isNillable());
+				assert (!sir.isTypeCastable());
+			}
 		}
+		addPhaseTime(BuildPhase.GLOBAL_TYPES, start);
 
 		// global elements
+		start = phaseStart();
 		XSNamedMap xsGlobalElements = xsModel
 				.getComponents(XSConstants.ELEMENT_DECLARATION);
 		for (int i = 0; i < xsGlobalElements.getLength(); i++) {
@@ -1269,6 +1655,7 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			// collect global elements (for DocContent)
 			globalElements.add(seGlobalElement);
 		}
+		addPhaseTime(BuildPhase.GLOBAL_ELEMENTS, start);
 
 		return globalElements;
 	}
@@ -1334,22 +1721,9 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		// Attribute Uses
 		// http://www.w3.org/TR/exi/#attributeUses
 
-		SchemaInformedStartTagGrammar ruleStart = new SchemaInformedStartTag(
-				ruleContent2);
 		// join top level events
-		for (int i = 0; i < ruleContent.getNumberOfEvents(); i++) {
-			Production ei = ruleContent.getProduction(i);
-			ruleStart.addProduction(ei.getEvent(), ei.getNextGrammar());
-		}
-
-		// If an {attribute wildcard} is specified, increment n and generate an
-		// additional attribute use grammar G n-1 as follows:
-		// G n-1, 0 :
-		// EE
-		if (attributeWC != null) {
-			// ruleStart.addTerminalRule(END_ELEMENT);
-			handleAttributeWildCard(attributeWC, ruleStart);
-		}
+		SchemaInformedStartTagGrammar ruleStart = getAttributeGrammar(
+				ruleContent, ruleContent2, null, false, attributeWC);
 
 		if (attributes != null && attributes.getLength() > 0) {
 			// attributes will occur sorted lexically by qname (in EXI Stream)
@@ -1367,38 +1741,92 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 
 				Attribute at = getAttribute(attrUse.getAttrDeclaration());
 
-				SchemaInformedStartTagGrammar newCurrent = new SchemaInformedStartTag(
-						ruleContent2);
-				newCurrent.addProduction(at, ruleStart);
+				ruleStart = getAttributeGrammar(ruleStart, ruleContent2, at,
+						attrUse.getRequired(), attributeWC);
+			}
+		}
 
-				// Attribute Wildcard
-				// http://www.w3.org/TR/exi/#complexTypeGrammars
-				if (attributeWC != null) {
-					handleAttributeWildCard(attributeWC, newCurrent);
-				}
+		return ruleStart;
 
-				// required attribute ?
-				if (!attrUse.getRequired()) {
-					// optional --> join top level events
-					for (int k = 0; k < ruleStart.getNumberOfEvents(); k++) {
-						Production ei = ruleStart.getProduction(k);
-						if (ei.getEvent().isEventType(
-								EventType.ATTRIBUTE_GENERIC)
-								|| ei.getEvent().isEventType(
-										EventType.ATTRIBUTE_NS)) {
-							// AT(*) & AT(uri:*) wilcards added before
-						} else {
-							newCurrent.addProduction(ei.getEvent(),
-									ei.getNextGrammar());
-						}
-					}
-				}
-				ruleStart = newCurrent;
+	}
+
+	/*
+	 * Returns the attribute use grammar for the given attribute and the
+	 * grammar following it. In shared mode grammars with identical
+	 * attribute-chain suffixes are created only once.
+	 */
+	private SchemaInformedStartTagGrammar getAttributeGrammar(
+			SchemaInformedGrammar next, SchemaInformedGrammar ruleContent2,
+			Attribute at, boolean required, XSWildcard attributeWC) {
+		if (!shareAttributeGrammars) {
+			return createAttributeGrammar(next, ruleContent2, at, required,
+					attributeWC);
+		}
+
+		AttributeGrammarKey key = new AttributeGrammarKey(next, ruleContent2,
+				at, required, attributeWC);
+		SchemaInformedStartTagGrammar ruleStart = attributeGrammars.get(key);
+		count(BuildCounter.ATTRIBUTE_GRAMMAR_LOOKUPS);
+		if (ruleStart == null) {
+			ruleStart = createAttributeGrammar(next, ruleContent2, at,
+					required, attributeWC);
+			attributeGrammars.put(key, ruleStart);
+		} else {
+			count(BuildCounter.ATTRIBUTE_GRAMMAR_HITS);
+		}
+		return ruleStart;
+	}
+
+	private SchemaInformedStartTagGrammar createAttributeGrammar(
+			SchemaInformedGrammar next, SchemaInformedGrammar ruleContent2,
+			Attribute at, boolean required, XSWildcard attributeWC) {
+		SchemaInformedStartTagGrammar newCurrent = new SchemaInformedStartTag(
+				ruleContent2);
+
+		if (at == null) {
+			// join top level events of content
+			for (int i = 0; i < next.getNumberOfEvents(); i++) {
+				Production ei = next.getProduction(i);
+				newCurrent.addProduction(ei.getEvent(), ei.getNextGrammar());
 			}
+
+			// If an {attribute wildcard} is specified, increment n and
+			// generate an additional attribute use grammar G n-1 as follows:
+			// G n-1, 0 :
+			// EE
+			if (attributeWC != null) {
+				// ruleStart.addTerminalRule(END_ELEMENT);
+				handleAttributeWildCard(attributeWC, newCurrent);
+			}
+			count(BuildCounter.PRODUCTIONS, newCurrent.getNumberOfEvents());
+			return newCurrent;
 		}
 
-		return ruleStart;
+		newCurrent.addProduction(at, next);
+
+		// Attribute Wildcard
+		// http://www.w3.org/TR/exi/#complexTypeGrammars
+		if (attributeWC != null) {
+			handleAttributeWildCard(attributeWC, newCurrent);
+		}
+
+		// required attribute ?
+		if (!required) {
+			// optional --> join top level events
+			for (int k = 0; k < next.getNumberOfEvents(); k++) {
+				Production ei = next.getProduction(k);
+				if (ei.getEvent().isEventType(EventType.ATTRIBUTE_GENERIC)
+						|| ei.getEvent().isEventType(EventType.ATTRIBUTE_NS)) {
+					// AT(*) & AT(uri:*) wilcards added before
+				} else {
+					newCurrent.addProduction(ei.getEvent(),
+							ei.getNextGrammar());
+				}
+			}
+		}
+		count(BuildCounter.PRODUCTIONS, newCurrent.getNumberOfEvents());
 
+		return newCurrent;
 	}
 
 	protected void handleAttributeWildCard(XSWildcard attributeWC,
@@ -1451,14 +1879,21 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		StartElement se = null;
 
 		// handle element recursion
+		count(BuildCounter.ELEMENT_LOOKUPS);
 		if (elementPool.containsKey(xsElementDeclaration)) {
+			count(BuildCounter.ELEMENT_HITS);
 			return elementPool.get(xsElementDeclaration);
 		} else {
 			String namespaceURI = xsElementDeclaration.getNamespace();
 			String localName = xsElementDeclaration.getName();
 			javax.xml.namespace.QName qname = new javax.xml.namespace.QName(
 					namespaceURI, localName);
-			se = createStartElement(qname); // new StartElement(qname);
+			if (lazyGrammars) {
+				se = new LazyStartElement(getQNameContext(qname),
+						xsElementDeclaration, this);
+			} else {
+				se = createStartElement(qname); // new StartElement(qname);
+			}
 			addLocalNameStringEntry(namespaceURI, localName);
 			elementPool.put(xsElementDeclaration, se);
 		}
@@ -1467,6 +1902,16 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		addLocalNameStringEntry(xsElementDeclaration.getNamespace(),
 				xsElementDeclaration.getName());
 
+		if (!lazyGrammars) {
+			translateElementGrammar(xsElementDeclaration, se);
+		}
+
+		return se;
+	}
+
+	protected void translateElementGrammar(
+			XSElementDeclaration xsElementDeclaration, StartElement se)
+			throws EXIException {
 		// type definition --> type grammar
 		XSTypeDefinition td = xsElementDeclaration.getTypeDefinition();
 		SchemaInformedFirstStartTagGrammar type = translateTypeDefinitionToFSA(td);
@@ -1497,8 +1942,96 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 				se.setGrammar(type);
 			}
 		}
+	}
 
-		return se;
+	/**
+	 * Registers all element and attribute declarations reachable from global
+	 * components without translating type grammars. Fragment grammars depend
+	 * on the complete set of declarations.
+	 * 
+	 * @throws EXIException
+	 *             EXI exception
+	 */
+	protected void initLazyDeclarations() throws EXIException {
+		Set<XSTypeDefinition> handledTypes = new HashSet<XSTypeDefinition>();
+
+		XSNamedMap types = xsModel.getComponents(XSConstants.TYPE_DEFINITION);
+		for (int i = 0; i < types.getLength(); i++) {
+			initLazyDeclarations((XSTypeDefinition) types.item(i),
+					handledTypes);
+		}
+
+		XSNamedMap elements = xsModel
+				.getComponents(XSConstants.ELEMENT_DECLARATION);
+		for (int i = 0; i < elements.getLength(); i++) {
+			initLazyDeclarations((XSElementDeclaration) elements.item(i),
+					handledTypes);
+		}
+	}
+
+	private void initLazyDeclarations(XSElementDeclaration elementDecl,
+			Set<XSTypeDefinition> handledTypes) throws EXIException {
+		translatElementDeclarationToFSA(elementDecl);
+		initLazyDeclarations(elementDecl.getTypeDefinition(), handledTypes);
+	}
+
+	private void initLazyDeclarations(XSTypeDefinition td,
+			Set<XSTypeDefinition> handledTypes) throws EXIException {
+		if (td.getTypeCategory() == XSTypeDefinition.COMPLEX_TYPE
+				&& handledTypes.add(td)) {
+			XSComplexTypeDefinition ctd = (XSComplexTypeDefinition) td;
+			XSObjectList attributeUses = ctd.getAttributeUses();
+			for (int i = 0; i < attributeUses.getLength(); i++) {
+				XSAttributeUse attrUse = (XSAttributeUse) attributeUses.item(i);
+				getAttribute(attrUse.getAttrDeclaration());
+			}
+			XSParticle particle = ctd.getParticle();
+			if (particle != null) {
+				initLazyDeclarations(particle.getTerm(), handledTypes);
+			}
+		}
+	}
+
+	private void initLazyDeclarations(XSTerm term,
+			Set<XSTypeDefinition> handledTypes) throws EXIException {
+		if (term.getType() == XSConstants.ELEMENT_DECLARATION) {
+			XSElementDeclaration elementDecl = (XSElementDeclaration) term;
+			if (!elementPool.containsKey(elementDecl)) {
+				initLazyDeclarations(elementDecl, handledTypes);
+			}
+		} else if (term.getType() == XSConstants.MODEL_GROUP) {
+			XSObjectList particles = ((XSModelGroup) term).getParticles();
+			for (int i = 0; i < particles.getLength(); i++) {
+				XSParticle particle = (XSParticle) particles.item(i);
+				initLazyDeclarations(particle.getTerm(), handledTypes);
+			}
+		}
+	}
+
+	synchronized void materializeElementGrammar(LazyStartElement se) {
+		if (se.state == LazyStartElement.PENDING) {
+			se.state = LazyStartElement.TRANSLATING;
+			try {
+				translateElementGrammar(se.elementDeclaration, se);
+			} catch (EXIException e) {
+				se.state = LazyStartElement.PENDING;
+				throw new LazyGrammarException("Element grammar for "
+						+ se.getQName() + " cannot be created.", e);
+			}
+			se.state = LazyStartElement.MATERIALIZED;
+		}
+	}
+
+	synchronized void materializeTypeGrammar(LazyQNameContext qnc) {
+		if (qnc.typeDefinition != null) {
+			try {
+				qnc.setTypeGrammar(translateTypeDefinitionToFSA(qnc.typeDefinition));
+			} catch (EXIException e) {
+				throw new LazyGrammarException("Type grammar for "
+						+ qnc.getQName() + " cannot be created.", e);
+			}
+			qnc.typeDefinition = null;
+		}
 	}
 
 	// // http://www.w3.org/TR/exi/#anyTypeGrammar
@@ -1602,7 +2135,9 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		// type rule already created?
 		if (!td.getAnonymous()) {
 			typeName = new QName(td.getNamespace(), td.getName());
+			count(BuildCounter.TYPE_GRAMMAR_LOOKUPS);
 			if ((type_i = grammarTypes.get(typeName)) != null) {
+				count(BuildCounter.TYPE_GRAMMAR_HITS);
 				return type_i;
 			}
 		}
@@ -1666,8 +2201,13 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			// elements
 			// with no character or element information item children.
 			// (attributes only, no content allowed)
-			ruleContent = new SchemaInformedElement();
-			ruleContent.addTerminalProduction(END_ELEMENT);
+			if (shareAttributeGrammars) {
+				// same as TypeEmpty_i
+				ruleContent = SIMPLE_END_ELEMENT_RULE;
+			} else {
+				ruleContent = new SchemaInformedElement();
+				ruleContent.addTerminalProduction(END_ELEMENT);
+			}
 			break;
 		case XSComplexTypeDefinition.CONTENTTYPE_SIMPLE:
 			// Represents a simple content type.
@@ -1700,15 +2240,22 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		// create copy of Element_i_content --> Element_i_content_2
 		// (used for content schema-deviations in start-tags, direct
 		// jumps)
-		SchemaInformedGrammar ruleContent2 = ruleContent.duplicate();
-		if (ruleContent2 instanceof SchemaInformedStartTagGrammar) {
-			// --> copy to schema informed elements grammar
-			SchemaInformedElement sie = new SchemaInformedElement();
-			for (int i = 0; i < ruleContent2.getNumberOfEvents(); i++) {
-				Production p = ruleContent2.getProduction(i);
-				sie.addProduction(p.getEvent(), p.getNextGrammar());
+		SchemaInformedGrammar ruleContent2 = shareAttributeGrammars ? elementContentGrammars
+				.get(ruleContent) : null;
+		if (ruleContent2 == null) {
+			ruleContent2 = ruleContent.duplicate();
+			if (ruleContent2 instanceof SchemaInformedStartTagGrammar) {
+				// --> copy to schema informed elements grammar
+				SchemaInformedElement sie = new SchemaInformedElement();
+				for (int i = 0; i < ruleContent2.getNumberOfEvents(); i++) {
+					Production p = ruleContent2.getProduction(i);
+					sie.addProduction(p.getEvent(), p.getNextGrammar());
+				}
+				ruleContent2 = sie;
+			}
+			if (shareAttributeGrammars) {
+				elementContentGrammars.put(ruleContent, ruleContent2);
 			}
-			ruleContent2 = sie;
 		}
 
 		// attributes
@@ -1725,13 +2272,20 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		// type_i.setTypeCastable(isTypeCastable);
 
 		// typeEmpty_i
-		SchemaInformedGrammar ruleEnd = new SchemaInformedElement();
-		ruleEnd.addTerminalProduction(END_ELEMENT);
+		SchemaInformedGrammar ruleEnd;
+		if (shareAttributeGrammars) {
+			ruleEnd = SIMPLE_END_ELEMENT_RULE;
+		} else {
+			ruleEnd = new SchemaInformedElement();
+			ruleEnd.addTerminalProduction(END_ELEMENT);
+		}
 		SchemaInformedFirstStartTagGrammar typeEmpty_i = new SchemaInformedFirstStartTag(
 				handleAttributes(ruleEnd, ruleEnd, attributes, attributeWC));
 		// typeEmpty_i.setTypeCastable(isTypeCastable);
 		type_i.setTypeEmpty(typeEmpty_i);
 
+		checkProductionBudget(ctd);
+
 		return type_i;
 		// return ruleContent;
 	}
@@ -1776,15 +2330,15 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 	public Datatype getDatatype(XSSimpleTypeDefinition std) throws EXIException {
 		Datatype datatype = datatypePool.get(std);
 
+		count(BuildCounter.DATATYPE_LOOKUPS);
 		if (datatype != null) {
+			count(BuildCounter.DATATYPE_HITS);
 			return datatype;
 		}
 
 		// used for dtr map
 		QName schemaType = getSchemaType(std);
-		QNameContext qncSchemaType = getQNameContext(
-				schemaType.getNamespaceURI(), schemaType.getLocalPart(),
-				this.grammarUriContexts);
+		QNameContext qncSchemaType = getQNameContext(schemaType);
 
 		// is enumeration ?
 		if (std.isDefinedFacet(XSSimpleTypeDefinition.FACET_ENUMERATION)) {
@@ -1912,8 +2466,11 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 								Datatype dtL = listDT.getListDatatype();
 								datatype = new ListDatatype(dtL, qncSchemaType);
 							} else {
+								String[] lexicalValues = new String[values.length];
+								TypeEncoder typeEncoder = new TypedTypeEncoder();
 								for (int k = 0; k < enumList.getLength(); k++) {
 									String tok = enumList.item(k);
+									lexicalValues[k] = tok;
 									Value enumValue;
 
 									switch (enumBIT) {
@@ -1972,7 +2529,6 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 														+ stdEnum);
 									}
 
-									TypeEncoder typeEncoder = new TypedTypeEncoder();
 									boolean valid = typeEncoder.isValid(
 											dtEnumValues, enumValue);
 									if (!valid) {
@@ -1984,8 +2540,9 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 									values[k] = enumValue;
 								}
 
-								datatype = new EnumerationDatatype(values,
-										dtEnumValues, qncSchemaType);
+								datatype = new IndexedEnumerationDatatype(
+										values, lexicalValues, dtEnumValues,
+										qncSchemaType);
 							}
 
 						}
@@ -2073,11 +2630,91 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			}
 		}
 
+		count(BuildCounter.DATATYPES);
+		datatype = internDatatype(std, qncSchemaType, datatype);
 		datatypePool.put(std, datatype);
 
 		return datatype;
 	}
 
+	/*
+	 * Returns an already created datatype that is structurally equal to the
+	 * given one, otherwise the given datatype.
+	 */
+	private Datatype internDatatype(XSSimpleTypeDefinition std,
+			QNameContext qncSchemaType, Datatype datatype) {
+		Datatype itemDatatype = std.getVariety() == XSSimpleTypeDefinition.VARIETY_LIST ? datatypePool
+				.get(std.getItemType()) : null;
+		DatatypeKey key = new DatatypeKey(qncSchemaType,
+				datatype.getBaseDatatype(), itemDatatype, getFacetKey(std));
+
+		Datatype interned = internedDatatypes.get(key);
+		if (interned == null) {
+			interned = isSharedDatatypeKey(key) ? datatypeInterner.intern(key,
+					datatype) : datatype;
+			internedDatatypes.put(key, interned);
+		}
+		if (interned != datatype) {
+			count(BuildCounter.DATATYPE_INTERN_HITS);
+		}
+		return interned;
+	}
+
+	/*
+	 * Only keys referring to shared built-in type contexts and datatypes can
+	 * match in other builds. Other keys would keep the grammars of this build
+	 * alive in the datatype interner and are interned within the build only.
+	 */
+	private boolean isSharedDatatypeKey(DatatypeKey key) {
+		return datatypeInterner != null
+				&& builtInTypeGrammars != null
+				&& key.schemaType instanceof QNameContext
+				&& builtInTypeGrammars.isShared((QNameContext) key.schemaType)
+				&& builtInTypeGrammars.isShared(key.baseDatatype)
+				&& (key.itemDatatype == null || builtInTypeGrammars
+						.isShared(key.itemDatatype));
+	}
+
+	/*
+	 * Variety, built-in kind, facets and annotations of a simple type (values
+	 * prefixed by their length)
+	 */
+	private static String getFacetKey(XSSimpleTypeDefinition std) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(std.getVariety()).append(',').append(std.getBuiltInKind());
+		XSObjectList facets = std.getFacets();
+		for (int i = 0; i < facets.getLength(); i++) {
+			XSFacet facet = (XSFacet) facets.item(i);
+			sb.append(';').append(facet.getFacetKind());
+			appendFacetValue(sb, facet.getLexicalFacetValue());
+		}
+		XSObjectList multiValueFacets = std.getMultiValueFacets();
+		for (int i = 0; i < multiValueFacets.getLength(); i++) {
+			XSMultiValueFacet facet = (XSMultiValueFacet) multiValueFacets
+					.item(i);
+			sb.append(';').append(facet.getFacetKind());
+			StringList values = facet.getLexicalFacetValues();
+			for (int k = 0; k < values.getLength(); k++) {
+				appendFacetValue(sb, values.item(k));
+			}
+		}
+		XSObjectList anns = std.getAnnotations();
+		for (int i = 0; anns != null && i < anns.getLength(); i++) {
+			sb.append(";a");
+			appendFacetValue(sb,
+					((XSAnnotation) anns.item(i)).getAnnotationString());
+		}
+		return sb.toString();
+	}
+
+	private static void appendFacetValue(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append(",-");
+		} else {
+			sb.append(',').append(value.length()).append(':').append(value);
+		}
+	}
+
 	private QName getXMLSchemaDatatype(XSSimpleTypeDefinition std) {
 		// primitive
 		QName primitive = getPrimitive(std);
@@ -2130,9 +2767,7 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 
 	private Datatype getIntegerDatatype(XSSimpleTypeDefinition std,
 			QName schemaType) {
-		QNameContext qncSchemaType = getQNameContext(
-				schemaType.getNamespaceURI(), schemaType.getLocalPart(),
-				this.grammarUriContexts);
+		QNameContext qncSchemaType = getQNameContext(schemaType);
 		/*
 		 * detect base integer type (e.g. int, long, BigInteger)
 		 */
@@ -2142,103 +2777,126 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			xsdSTD = xsdSTD.getBaseType();
 		}
 
-		// set appropriate integer type
-		IntegerType intType;
-
-		// big
-		if (xsdSTD.getName().equals("integer")
-				|| xsdSTD.getName().equals("nonPositiveInteger")
-				|| xsdSTD.getName().equals("negativeInteger")) {
-			intType = IntegerType.INTEGER_BIG;
-		}
-		// unsigned big
-		else if (xsdSTD.getName().equals("nonNegativeInteger")
-				|| xsdSTD.getName().equals("positiveInteger")) {
-			intType = IntegerType.UNSIGNED_INTEGER_BIG;
-		}
-		// int 64
-		else if (xsdSTD.getName().equals("long")) {
-			intType = IntegerType.INTEGER_64;
-		}
-		// unsigned int 64
-		else if (xsdSTD.getName().equals("unsignedLong")) {
-			intType = IntegerType.UNSIGNED_INTEGER_64;
-		}
-		// int 32
-		else if (xsdSTD.getName().equals("int")) {
-			intType = IntegerType.INTEGER_32;
-		}
-		// unsigned int 32
-		else if (xsdSTD.getName().equals("unsignedInt")) {
-			intType = IntegerType.UNSIGNED_INTEGER_32;
-		}
-		// int 16
-		else if (xsdSTD.getName().equals("short")) {
-			intType = IntegerType.INTEGER_16;
-		}
-		// unsigned int 16
-		else if (xsdSTD.getName().equals("unsignedShort")) {
-			intType = IntegerType.UNSIGNED_INTEGER_16;
-		}
-		// int 8
-		else if (xsdSTD.getName().equals("byte")) {
-			intType = IntegerType.INTEGER_8;
-		}
-		// unsigned int 8
-		else if (xsdSTD.getName().equals("unsignedByte")) {
-			intType = IntegerType.UNSIGNED_INTEGER_8;
-		}
-		// ERROR ??
-		else {
+		BuiltInIntegerType builtIn = BUILT_IN_INTEGER_TYPES.get(xsdSTD
+				.getName());
+		if (builtIn == null) {
 			throw new RuntimeException("Unexpected Integer Type: " + xsdSTD);
 		}
+		// set appropriate integer type
+		IntegerType intType = builtIn.integerType;
 
 		/*
 		 * identify lower & upper bound
 		 */
-		BigInteger min = new BigInteger(
-				"-9999999999999999999999999999999999999999");
-		BigInteger max = new BigInteger(
-				"9999999999999999999999999999999999999999");
-		// minimum
-		if (std.isDefinedFacet(XSSimpleTypeDefinition.FACET_MININCLUSIVE)) {
-			String sMinInclusive = std
-					.getLexicalFacetValue(XSSimpleTypeDefinition.FACET_MININCLUSIVE);
-			min = min.max(new BigInteger(sMinInclusive));
-		}
-		if (std.isDefinedFacet(XSSimpleTypeDefinition.FACET_MINEXCLUSIVE)) {
-			String sMinExclusive = std
-					.getLexicalFacetValue(XSSimpleTypeDefinition.FACET_MINEXCLUSIVE);
-			min = min.max((new BigInteger(sMinExclusive)).add(BigInteger.ONE));
-		}
-		// maximum
-		if (std.isDefinedFacet(XSSimpleTypeDefinition.FACET_MAXINCLUSIVE)) {
-			String sMaxInclusive = std
-					.getLexicalFacetValue(XSSimpleTypeDefinition.FACET_MAXINCLUSIVE);
-			max = max.min(new BigInteger(sMaxInclusive));
-		}
-		if (std.isDefinedFacet(XSSimpleTypeDefinition.FACET_MAXEXCLUSIVE)) {
-			String sMaxExclusive = std
-					.getLexicalFacetValue(XSSimpleTypeDefinition.FACET_MAXEXCLUSIVE);
-			max = max.min((new BigInteger(sMaxExclusive))
-					.subtract(BigInteger.ONE));
-		}
-		// ( max >= min)
-		assert (max.compareTo(min) >= 0);
+		String sMinInclusive = getIntegerFacet(std,
+				XSSimpleTypeDefinition.FACET_MININCLUSIVE);
+		String sMinExclusive = getIntegerFacet(std,
+				XSSimpleTypeDefinition.FACET_MINEXCLUSIVE);
+		String sMaxInclusive = getIntegerFacet(std,
+				XSSimpleTypeDefinition.FACET_MAXINCLUSIVE);
+		String sMaxExclusive = getIntegerFacet(std,
+				XSSimpleTypeDefinition.FACET_MAXEXCLUSIVE);
+
+		// n-bit bounds, null if the bounded range exceeds the n-bit limit
+		IntegerValue nbitMin = null;
+		IntegerValue nbitMax = null;
+		boolean nonNegative = false;
+
+		// facets of long-bounded built-ins are known to fit
+		boolean longFacets = builtIn.longValueSpace
+				|| (isLongFacet(sMinInclusive) && isLongFacet(sMinExclusive)
+						&& isLongFacet(sMaxInclusive) && isLongFacet(sMaxExclusive));
+
+		if (longFacets) {
+			boolean hasMin = false;
+			boolean hasMax = false;
+			long min = 0;
+			long max = 0;
+			// minimum
+			if (sMinInclusive != null) {
+				min = Long.parseLong(sMinInclusive);
+				hasMin = true;
+			}
+			if (sMinExclusive != null) {
+				long v = Long.parseLong(sMinExclusive);
+				// v + 1 must not overflow
+				longFacets = v != Long.MAX_VALUE;
+				min = hasMin ? Math.max(min, v + 1) : v + 1;
+				hasMin = true;
+			}
+			// maximum
+			if (sMaxInclusive != null) {
+				max = Long.parseLong(sMaxInclusive);
+				hasMax = true;
+			}
+			if (sMaxExclusive != null) {
+				long v = Long.parseLong(sMaxExclusive);
+				// v - 1 must not overflow
+				longFacets &= v != Long.MIN_VALUE;
+				max = hasMax ? Math.min(max, v - 1) : v - 1;
+				hasMax = true;
+			}
 
-		/*
-		 * calculate bounded range;
-		 */
-		// max - min + 1 --- e.g., [-1 .. -1] = 3 OR [2 .. 4] = 3
-		BigInteger boundedRange = max.subtract(min).add(BigInteger.ONE);
+			if (longFacets) {
+				// ( max >= min)
+				assert (!hasMin || !hasMax || max >= min);
+
+				/*
+				 * bounded range max - min + 1, (max - min) is exact when
+				 * read unsigned
+				 */
+				if (hasMin
+						&& hasMax
+						&& (max < min || Long.compareUnsigned(max - min,
+								MAX_BOUNDED_NBIT_INTEGER_RANGE - 1) <= 0)) {
+					nbitMin = IntegerValue.valueOf(min);
+					nbitMax = IntegerValue.valueOf(max);
+				}
+				nonNegative = hasMin && min >= 0;
+			}
+		}
+
+		if (!longFacets) {
+			BigInteger min = UNBOUNDED_INTEGER_MIN;
+			BigInteger max = UNBOUNDED_INTEGER_MAX;
+			// minimum
+			if (sMinInclusive != null) {
+				min = min.max(new BigInteger(sMinInclusive));
+			}
+			if (sMinExclusive != null) {
+				min = min.max((new BigInteger(sMinExclusive))
+						.add(BigInteger.ONE));
+			}
+			// maximum
+			if (sMaxInclusive != null) {
+				max = max.min(new BigInteger(sMaxInclusive));
+			}
+			if (sMaxExclusive != null) {
+				max = max.min((new BigInteger(sMaxExclusive))
+						.subtract(BigInteger.ONE));
+			}
+			// ( max >= min)
+			assert (max.compareTo(min) >= 0);
+
+			/*
+			 * calculate bounded range;
+			 */
+			// max - min + 1 --- e.g., [-1 .. -1] = 3 OR [2 .. 4] = 3
+			BigInteger boundedRange = max.subtract(min).add(BigInteger.ONE);
+			if (boundedRange.compareTo(BigInteger
+					.valueOf(MAX_BOUNDED_NBIT_INTEGER_RANGE)) <= 0) {
+				nbitMin = IntegerValue.valueOf(min);
+				nbitMax = IntegerValue.valueOf(max);
+			}
+			nonNegative = min.signum() >= 0;
+		}
 
 		/*
 		 * Set-up appropriate datatype
 		 */
 		Datatype datatype;
 
-		if (boundedRange.compareTo(BigInteger
-				.valueOf(MAX_BOUNDED_NBIT_INTEGER_RANGE)) <= 0) {
+		if (nbitMin != null) {
 			/*
 			 * When the bounded range of integer is 4095 or smaller as
 			 * determined by the values of minInclusiveXS2, minExclusiveXS2,
@@ -2256,15 +2914,14 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 			case INTEGER_32:
 			case INTEGER_16:
 			case INTEGER_8:
-				datatype = new NBitUnsignedIntegerDatatype(
-						IntegerValue.valueOf(min), IntegerValue.valueOf(max),
+				datatype = new NBitUnsignedIntegerDatatype(nbitMin, nbitMax,
 						qncSchemaType);
 				break;
 			default:
 				throw new RuntimeException("Unexpected n-Bit Integer Type: "
 						+ intType);
 			}
-		} else if (min.signum() >= 0) {
+		} else if (nonNegative) {
 			/*
 			 * Otherwise, when the integer satisfies one of the followings, use
 			 * Unsigned Integer representation.
@@ -2331,15 +2988,45 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 		return datatype;
 	}
 
+	private static String getIntegerFacet(XSSimpleTypeDefinition std,
+			short facet) {
+		return std.isDefinedFacet(facet) ? std.getLexicalFacetValue(facet)
+				: null;
+	}
+
+	/*
+	 * whether an integer facet value is representable as long
+	 */
+	private static boolean isLongFacet(String facet) {
+		if (facet == null) {
+			return true;
+		}
+		int off = 0;
+		boolean negative = false;
+		if (facet.length() > 0
+				&& (facet.charAt(0) == '-' || facet.charAt(0) == '+')) {
+			negative = facet.charAt(0) == '-';
+			off = 1;
+		}
+		int digits = facet.length() - off;
+		if (digits <= 0 || digits > LONG_MAX_DIGITS.length()) {
+			return false;
+		} else if (digits < LONG_MAX_DIGITS.length()) {
+			return true;
+		} else {
+			// same number of digits, lexical order is numeric order
+			return facet.substring(off).compareTo(
+					negative ? LONG_MIN_DIGITS : LONG_MAX_DIGITS) <= 0;
+		}
+	}
+
 	private QName getName(XSTypeDefinition type) {
 		return new QName(type.getNamespace(), type.getName());
 	}
 
 	private Datatype getDatatypeOfType(XSSimpleTypeDefinition std,
 			final QName schemaType) {
-		final QNameContext qncSchemaType = getQNameContext(
-				schemaType.getNamespaceURI(), schemaType.getLocalPart(),
-				this.grammarUriContexts);
+		final QNameContext qncSchemaType = getQNameContext(schemaType);
 
 		//
 		Datatype datatype;
@@ -2405,17 +3092,16 @@ public class XSDGrammarsBuilder extends EXIContentModelBuilder {
 				} else {
 					// analyze most-derived datatype facet only
 					String regexPattern = sl.item(0);
-					EXIRegularExpression re = new EXIRegularExpression(
-							regexPattern);
+					// analysis results are cached per pattern
+					RestrictedCharacterSet rcs = EXIRegularExpression
+							.getCachedRestrictedCharacterSet(regexPattern);
 
-					if (re.isEntireSetOfXMLCharacters()) {
+					if (rcs == null) {
 						// *normal* string
 						datatype = new StringDatatype(qncSchemaType,
 								getWhiteSpaceFacet(std));
 					} else {
 						// restricted char set
-						RestrictedCharacterSet rcs = new CodePointCharacterSet(
-								re.getCodePoints());
 						datatype = new RestrictedCharacterSetDatatype(rcs,
 								qncSchemaType, getWhiteSpaceFacet(std));
 					}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars.regex;
+
+import java.util.BitSet;
+
+import com.siemens.ct.exi.core.datatype.charset.AbstractRestrictedCharacterSet;
+
+/**
+ * Restricted character set created from the code point table of an
+ * <code>EXIRegularExpression</code>. The constructor copies the set code
+ * points in ascending order, no intermediate set and sorting needed. Later
+ * changes of the table do not affect the character set.
+ */
+
+public class BitSetCharacterSet extends AbstractRestrictedCharacterSet {
+
+	public BitSetCharacterSet(BitSet codePoints) {
+		super();
+
+		for (int cp = codePoints.nextSetBit(0); cp >= 0; cp = codePoints
+				.nextSetBit(cp + 1)) {
+			addValue(cp);
+		}
+	}
+}
@@ -23,12 +23,16 @@
 
 package com.siemens.ct.exi.grammars.regex;
 
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import com.siemens.ct.exi.core.datatype.charset.RestrictedCharacterSet;
 import com.siemens.ct.exi.grammars.regex.Token.CharToken;
 import com.siemens.ct.exi.grammars.regex.Token.ClosureToken;
 import com.siemens.ct.exi.grammars.regex.Token.ConcatToken;
@@ -71,7 +75,11 @@ public class EXIRegularExpression extends RegularExpression {
 
 	private static final long serialVersionUID = 1L;
 
-	protected Set<Integer> set;
+	// BMP code points of the pattern
+	protected BitSet set;
+
+	// number of code points in set
+	protected int size;
 
 	protected boolean isRestrictedSet;
 
@@ -110,41 +118,62 @@ public class EXIRegularExpression extends RegularExpression {
 	// NOTE: no \s
 	static String MultiCharEsc2 = "\\\\" + "[SiIcCdDwW]";
 
+	// compiled once, patterns are thread-safe
+	static final Pattern NON_BMP = Pattern.compile("[^\u0000-\uFFFF]");
+	static final Pattern CAT_ESC = Pattern.compile(catEsc);
+	static final Pattern COMPL_ESC = Pattern.compile(complEsc);
+	static final Pattern MULTI_CHAR_ESC2 = Pattern.compile(MultiCharEsc2);
+
+	/*
+	 * Analyzed patterns shared by all builds of the process, the least
+	 * recently used one is evicted
+	 */
+	public static final int MAX_CACHED_PATTERNS = 1024;
+
+	// marks patterns allowing the entire set of XML characters
+	private static final RestrictedCharacterSet ENTIRE_SET = new BitSetCharacterSet(
+			new BitSet());
+
+	private static final Map<String, RestrictedCharacterSet> ANALYZED_PATTERNS = new LinkedHashMap<String, RestrictedCharacterSet>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, RestrictedCharacterSet> eldest) {
+			return size() > MAX_CACHED_PATTERNS;
+		}
+	};
+
 	public EXIRegularExpression(String regex) {
 		super(regex, "X");
 		// init set
-		set = new HashSet<Integer>();
+		set = new BitSet();
 		isRestrictedSet = true;
 
-		// To remove all non-BMP characters, the following should work:
-		String sanitizedString = regex.replaceAll("[^\u0000-\uFFFF]", "");
-		if (sanitizedString.length() != regex.length()) {
+		// any non-BMP character
+		if (NON_BMP.matcher(regex).find()) {
 			isRestrictedSet = false;
 			return;
 		}
 
 		// category escapes
 		// http://www.w3.org/TR/2004/REC-xmlschema-2-20041028/#nt-catEsc
-		Pattern pCatEsc = Pattern.compile(catEsc);
-		Matcher mCatEsc = pCatEsc.matcher(regex);
-		if (mCatEsc.find()) {
+		if (CAT_ESC.matcher(regex).find()) {
 			isRestrictedSet = false;
 			return;
 		}
 
 		// category complement escapes
 		// http://www.w3.org/TR/2004/REC-xmlschema-2-20041028/#nt-complEsc
-		Pattern pComplexEsc = Pattern.compile(complEsc);
-		Matcher mComplexEsc = pComplexEsc.matcher(regex);
-		if (mComplexEsc.find()) {
+		if (COMPL_ESC.matcher(regex).find()) {
 			isRestrictedSet = false;
 			return;
 		}
 
 		// multi-character escapes other than \s
 		// http://www.w3.org/TR/2004/REC-xmlschema-2-20041028/#nt-MultiCharEsc
-		Pattern pMultiCharEsc2 = Pattern.compile(MultiCharEsc2);
-		Matcher mMultiCharEsc2 = pMultiCharEsc2.matcher(regex);
+		Matcher mMultiCharEsc2 = MULTI_CHAR_ESC2.matcher(regex);
 		while (mMultiCharEsc2.find()) {
 			int start = mMultiCharEsc2.start();
 			if (start > 0 && regex.charAt(start) == '\\'
@@ -160,22 +189,67 @@ public class EXIRegularExpression extends RegularExpression {
 		handleToken(this.tokentree);
 	}
 
+	/**
+	 * Returns the restricted character set of an XML Schema pattern, or
+	 * <code>null</code> if the pattern allows the entire set of XML
+	 * characters. Results are cached by pattern string so that recurring
+	 * pattern facets are parsed and analyzed once.
+	 * 
+	 * @param regex
+	 *            XML Schema pattern
+	 * @return restricted character set or <code>null</code>
+	 */
+	public static RestrictedCharacterSet getCachedRestrictedCharacterSet(
+			String regex) {
+		RestrictedCharacterSet rcs;
+		synchronized (ANALYZED_PATTERNS) {
+			rcs = ANALYZED_PATTERNS.get(regex);
+		}
+		if (rcs == null) {
+			// analyze outside the lock, concurrent duplicates are harmless
+			EXIRegularExpression re = new EXIRegularExpression(regex);
+			rcs = re.isEntireSetOfXMLCharacters() ? ENTIRE_SET : re
+					.getRestrictedCharacterSet();
+			synchronized (ANALYZED_PATTERNS) {
+				ANALYZED_PATTERNS.put(regex, rcs);
+			}
+		}
+		return rcs == ENTIRE_SET ? null : rcs;
+	}
+
 	protected void addChar(int cp) {
-		set.add(cp);
+		if (!set.get(cp)) {
+			set.set(cp);
+			size++;
+		}
 	}
 
 	public boolean isEntireSetOfXMLCharacters() {
-		return set.isEmpty()
-				|| !(isRestrictedSet && set.size() <= MAX_NUMBER_OF_CHARACTERS);
+		return size == 0
+				|| !(isRestrictedSet && size <= MAX_NUMBER_OF_CHARACTERS);
 	}
 
 	public Set<Integer> getCodePoints() {
-		return set;
+		Set<Integer> codePoints = new HashSet<Integer>(size * 2);
+		for (int cp = set.nextSetBit(0); cp >= 0; cp = set.nextSetBit(cp + 1)) {
+			codePoints.add(cp);
+		}
+		return codePoints;
+	}
+
+	/**
+	 * Returns the restricted character set of this pattern, only valid if
+	 * <code>isEntireSetOfXMLCharacters()</code> returns false.
+	 * 
+	 * @return restricted character set in code point order
+	 */
+	public RestrictedCharacterSet getRestrictedCharacterSet() {
+		return new BitSetCharacterSet(set);
 	}
 
 	protected void handleToken(Token t) {
 		// abort processing
-		if (!isRestrictedSet || set.size() > MAX_NUMBER_OF_CHARACTERS) {
+		if (!isRestrictedSet || size > MAX_NUMBER_OF_CHARACTERS) {
 			return;
 		}
 		switch (t.type) {
@@ -209,15 +283,16 @@ public class EXIRegularExpression extends RegularExpression {
 			RangeToken rt = (RangeToken) t;
 			int[] ranges = rt.ranges;
 			for (int k = 0; k < ranges.length; k += 2) {
-				// abort processing due to huge range
+				// abort processing due to huge range, before touching the set
 				if ((ranges[k + 1] - ranges[k]) > MAX_NUMBER_OF_CHARACTERS) {
 					isRestrictedSet = false;
 					return;
 				}
-				for (int codePoint = ranges[k]; codePoint <= ranges[k + 1]; codePoint++) {
-					addChar(codePoint);
-				}
 			}
+			for (int k = 0; k < ranges.length; k += 2) {
+				set.set(ranges[k], ranges[k + 1] + 1);
+			}
+			size = set.cardinality();
 			break;
 		case Token.UNION: // X|Y|Z
 		case Token.CONCAT: // XY
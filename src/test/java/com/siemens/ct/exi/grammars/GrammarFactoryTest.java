@@ -0,0 +1,945 @@
+/*
+ * Copyright (c) 2007-2018 Siemens AG
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.  IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ * 
+ */
+
+package com.siemens.ct.exi.grammars;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+import org.apache.xerces.impl.xs.XMLSchemaLoader;
+import org.apache.xerces.impl.xs.XSDDescription;
+import org.apache.xerces.impl.xs.models.CMBuilder;
+import org.apache.xerces.xs.XSComplexTypeDefinition;
+import org.apache.xerces.xs.XSModel;
+
+import com.siemens.ct.exi.core.datatype.Datatype;
+import com.siemens.ct.exi.core.exceptions.EXIException;
+import com.siemens.ct.exi.core.grammars.Grammars;
+import com.siemens.ct.exi.core.grammars.SchemaInformedGrammars;
+import com.siemens.ct.exi.core.grammars.event.DatatypeEvent;
+import com.siemens.ct.exi.core.grammars.event.EventType;
+import com.siemens.ct.exi.core.grammars.event.StartElement;
+import com.siemens.ct.exi.core.grammars.grammar.Grammar;
+import com.siemens.ct.exi.core.grammars.grammar.SchemaInformedFirstStartTagGrammar;
+import com.siemens.ct.exi.core.grammars.production.Production;
+import com.siemens.ct.exi.grammars.persistency.Grammars2JSON;
+
+public class GrammarFactoryTest extends TestCase {
+
+	static final String SCHEMA_SEQUENCE = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+			+ " <xs:element name='root'>"
+			+ "  <xs:complexType>"
+			+ "   <xs:sequence >"
+			+ "    <xs:element name='a' type='xs:string' /> "
+			+ "    <xs:element name='b' type='xs:string' /> "
+			+ "   </xs:sequence>"
+			+ "  </xs:complexType>"
+			+ " </xs:element>" + "</xs:schema>";
+
+	static void writeFile(File f, String content) throws IOException {
+		OutputStream os = new FileOutputStream(f);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		} finally {
+			os.close();
+		}
+	}
+
+	static File createTempDir() throws IOException {
+		File dir = File.createTempFile("exiGrammars", "");
+		assertTrue(dir.delete());
+		assertTrue(dir.mkdir());
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	public void testGrammarCacheInputStream() throws Exception {
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setGrammarCache(GrammarCache.newInstance());
+
+		Grammars g1 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+		Grammars g2 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+		assertTrue(g1 == g2);
+		assertEquals(1, grammarFactory.getGrammarCache().size());
+
+		// different content
+		Grammars g3 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.replace("'b'", "'c'").getBytes()));
+		assertTrue(g1 != g3);
+		assertEquals(2, grammarFactory.getGrammarCache().size());
+	}
+
+	public void testGrammarCacheIncludeModified() throws Exception {
+		File dir = createTempDir();
+		File main = new File(dir, "main.xsd");
+		File inc = new File(dir, "inc.xsd");
+		main.deleteOnExit();
+		inc.deleteOnExit();
+
+		writeFile(main, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:include schemaLocation='inc.xsd'/>"
+				+ " <xs:element name='root' type='T'/>" + "</xs:schema>");
+		writeFile(inc, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:simpleType name='T'>"
+				+ "  <xs:restriction base='xs:string'/>"
+				+ " </xs:simpleType>" + "</xs:schema>");
+
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setGrammarCache(GrammarCache.newInstance());
+
+		Grammars g1 = grammarFactory.createGrammars(main.getAbsolutePath());
+		Grammars g2 = grammarFactory.createGrammars(main.getAbsolutePath());
+		assertTrue(g1 == g2);
+
+		// modify included schema only
+		writeFile(inc, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:simpleType name='T'>"
+				+ "  <xs:restriction base='xs:int'/>"
+				+ " </xs:simpleType>" + "</xs:schema>");
+
+		Grammars g3 = grammarFactory.createGrammars(main.getAbsolutePath());
+		assertTrue(g1 != g3);
+	}
+
+	public void testGrammarCacheEviction() throws Exception {
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setGrammarCache(GrammarCache.newInstance(1));
+
+		Grammars g1 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+		grammarFactory.createGrammars(new ByteArrayInputStream(SCHEMA_SEQUENCE
+				.replace("'b'", "'c'").getBytes()));
+		assertEquals(1, grammarFactory.getGrammarCache().size());
+
+		Grammars g3 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+		assertTrue(g1 != g3);
+	}
+
+	public void testGrammarCacheOptions() throws Exception {
+		GrammarCache grammarCache = GrammarCache.newInstance();
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setGrammarCache(grammarCache);
+		Grammars g1 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+
+		// relaxed budget-limited grammars are not shared with exact ones
+		GrammarFactory relaxedFactory = GrammarFactory.newInstance();
+		relaxedFactory.setGrammarCache(grammarCache);
+		relaxedFactory.setMaximumContentModelStates(1);
+		relaxedFactory.setRelaxedContentModels(true);
+		Grammars g2 = relaxedFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+		assertTrue(g1 != g2);
+		assertEquals(2, grammarCache.size());
+
+		// lazy grammars are kept separately
+		grammarFactory.setLazyGrammars(true);
+		Grammars g3 = grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes()));
+		assertTrue(g1 != g3);
+		assertEquals(3, grammarCache.size());
+
+		// same options again
+		grammarFactory.setLazyGrammars(false);
+		assertTrue(g1 == grammarFactory.createGrammars(new ByteArrayInputStream(
+				SCHEMA_SEQUENCE.getBytes())));
+	}
+
+	public void testConcurrentBuilds() throws Exception {
+		final GrammarFactory grammarFactory = GrammarFactory.newInstance(2);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Grammars>> futures = new ArrayList<Future<Grammars>>();
+			for (int i = 0; i < 32; i++) {
+				final String schema = SCHEMA_SEQUENCE.replace("'b'", "'b" + i
+						+ "'");
+				futures.add(executor.submit(new Callable<Grammars>() {
+					public Grammars call() throws Exception {
+						return grammarFactory
+								.createGrammars(new ByteArrayInputStream(schema
+										.getBytes()));
+					}
+				}));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				Grammars g = futures.get(i).get();
+				Grammar root = g.getGrammarContext().getGrammarUriContext("")
+						.getQNameContext("root").getGlobalStartElement()
+						.getGrammar();
+				// SE(a) followed by SE(b<i>)
+				Grammar a = root.getProduction(0).getNextGrammar();
+				StartElement se = (StartElement) a.getProduction(0).getEvent();
+				assertEquals("b" + i, se.getQName().getLocalPart());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testCreateGrammarsAsync() throws Exception {
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		CompletableFuture<Grammars> f1 = grammarFactory.createGrammarsAsync(
+				new ByteArrayInputStream(SCHEMA_SEQUENCE.getBytes()), null);
+		CompletableFuture<Grammars> f2 = grammarFactory
+				.createGrammarsAsync("./data/schema/vehicle.xsd");
+		assertTrue(f1.get().isSchemaInformed());
+		assertTrue(f2.get().isSchemaInformed());
+		assertEquals("./data/schema/vehicle.xsd", f2.get().getSchemaId());
+
+		// failure completes exceptionally
+		CompletableFuture<Grammars> f3 = grammarFactory
+				.createGrammarsAsync("./data/schema/doesNotExist.xsd");
+		try {
+			f3.get();
+			fail("Non-existing schema");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof EXIException);
+		}
+	}
+
+	static String toJSON(Grammars g) throws Exception {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		new Grammars2JSON().toGrammarsJSON((SchemaInformedGrammars) g, baos);
+		return baos.toString("UTF-8");
+	}
+
+	public void testBatchSharedBuiltInTypes() throws Exception {
+		List<String> xsdLocations = Arrays.asList(
+				"./data/schema/vehicle.xsd", "./data/schema/list.xsd",
+				"./data/schema/enumeration.xsd", "./data/schema/nillable.xsd",
+				"./data/schema/vehicle.xsd");
+		GrammarFactory grammarFactory = GrammarFactory.newInstance(2);
+		Map<String, Grammars> grammars = grammarFactory.createGrammars(
+				xsdLocations, null);
+		assertEquals(4, grammars.size());
+
+		for (String xsdLocation : xsdLocations) {
+			Grammars g = grammars.get(xsdLocation);
+			assertEquals(xsdLocation, g.getSchemaId());
+			// same grammars as built one by one
+			assertEquals(toJSON(grammarFactory.createGrammars(xsdLocation)),
+					toJSON(g));
+			// built-in types are shared
+			assertSame(grammars.get(xsdLocations.get(0)).getGrammarContext()
+					.getGrammarUriContext(3), g.getGrammarContext()
+					.getGrammarUriContext(3));
+		}
+
+		try {
+			grammarFactory.createGrammars(Arrays.asList(
+					"./data/schema/vehicle.xsd",
+					"./data/schema/doesNotExist.xsd"), null);
+			fail("Non-existing schema");
+		} catch (EXIException e) {
+			// expected
+		}
+	}
+
+	public void testBatchPoolLargerThanBuilderPool() throws Exception {
+		List<String> xsdLocations = Arrays.asList(
+				"./data/schema/vehicle.xsd", "./data/schema/list.xsd",
+				"./data/schema/enumeration.xsd", "./data/schema/nillable.xsd",
+				"./data/schema/group1.xsd", "./data/schema/all.xsd");
+		GrammarFactory grammarFactory = GrammarFactory.newInstance(1);
+		// same pool for batch builds and content model exploration
+		ForkJoinPool pool = new ForkJoinPool(4);
+		grammarFactory.setForkJoinPool(pool);
+		try {
+			Map<String, Grammars> grammars = grammarFactory.createGrammars(
+					xsdLocations, null, pool);
+			assertEquals(xsdLocations.size(), grammars.size());
+			for (String xsdLocation : xsdLocations) {
+				assertEquals(xsdLocation, grammars.get(xsdLocation)
+						.getSchemaId());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testDatatypeInterner() throws Exception {
+		String xsd = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:element name='e1'><xs:simpleType>"
+				+ "  <xs:restriction base='xs:string'><xs:enumeration value='a'/>"
+				+ "  <xs:enumeration value='b'/></xs:restriction>"
+				+ " </xs:simpleType></xs:element>"
+				+ " <xs:element name='e2'><xs:simpleType>"
+				+ "  <xs:restriction base='xs:string'><xs:enumeration value='a'/>"
+				+ "  <xs:enumeration value='b'/></xs:restriction>"
+				+ " </xs:simpleType></xs:element>"
+				+ " <xs:element name='e3'><xs:simpleType>"
+				+ "  <xs:restriction base='xs:string'><xs:enumeration value='a'/>"
+				+ "  <xs:enumeration value='c'/></xs:restriction>"
+				+ " </xs:simpleType></xs:element>" + "</xs:schema>";
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		Grammars g = grammarFactory.createGrammars(new ByteArrayInputStream(
+				xsd.getBytes("UTF-8")));
+		// equal anonymous types share the datatype within a build
+		assertSame(datatype(g, "e1"), datatype(g, "e2"));
+		assertNotSame(datatype(g, "e1"), datatype(g, "e3"));
+
+		// and between builds sharing the built-in types
+		File f1 = File.createTempFile("interner1", ".xsd");
+		File f2 = File.createTempFile("interner2", ".xsd");
+		try {
+			for (File f : new File[] { f1, f2 }) {
+				OutputStream os = new FileOutputStream(f);
+				os.write(xsd.getBytes("UTF-8"));
+				os.close();
+			}
+			DatatypeInterner datatypeInterner = DatatypeInterner.newInstance();
+			grammarFactory.setDatatypeInterner(datatypeInterner);
+			Map<String, Grammars> grammars = grammarFactory.createGrammars(
+					Arrays.asList(f1.getPath(), f2.getPath()), null);
+			Grammars g1 = grammars.get(f1.getPath());
+			Grammars g2 = grammars.get(f2.getPath());
+			assertSame(datatype(g1, "e1"), datatype(g2, "e2"));
+			assertSame(datatype(g1, "e3"), datatype(g2, "e3"));
+			assertEquals(toJSON(g), toJSON(g1));
+			assertEquals(2, datatypeInterner.size());
+
+			// standalone builds share the built-in types as well
+			datatypeInterner.clear();
+			Grammars gs = grammarFactory.createGrammars(f1.getPath());
+			assertSame(datatype(gs, "e1"), datatype(gs, "e2"));
+			assertEquals(2, datatypeInterner.size());
+			Grammars gis = grammarFactory.createGrammars(new ByteArrayInputStream(
+					xsd.getBytes("UTF-8")));
+			assertSame(datatype(gs, "e1"), datatype(gis, "e1"));
+			assertSame(datatype(gs, "e3"), datatype(gis, "e3"));
+			assertEquals(toJSON(g), toJSON(gis));
+			assertEquals(2, datatypeInterner.size());
+
+			// restrictions of user-defined types stay within their build
+			String derived = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+					+ " <xs:simpleType name='S'><xs:restriction base='xs:string'>"
+					+ "  <xs:maxLength value='5'/></xs:restriction></xs:simpleType>"
+					+ " <xs:element name='e1'><xs:simpleType>"
+					+ "  <xs:restriction base='S'><xs:enumeration value='a'/>"
+					+ "  </xs:restriction></xs:simpleType></xs:element>"
+					+ "</xs:schema>";
+			datatypeInterner.clear();
+			grammarFactory.createGrammars(new ByteArrayInputStream(derived
+					.getBytes("UTF-8")));
+			assertEquals(0, datatypeInterner.size());
+		} finally {
+			f1.delete();
+			f2.delete();
+		}
+	}
+
+	static Datatype datatype(Grammars g, String element) {
+		Grammar elementGrammar = g.getGrammarContext()
+				.getGrammarUriContext("").getQNameContext(element)
+				.getGlobalStartElement().getGrammar();
+		return ((DatatypeEvent) elementGrammar.getProduction(0).getEvent())
+				.getDatatype();
+	}
+
+	public void testXSDTypesOnlyGrammarsShared() throws Exception {
+		Grammars g1 = GrammarFactory.newInstance().createXSDTypesOnlyGrammars();
+		Grammars g2 = GrammarFactory.newInstance().createXSDTypesOnlyGrammars();
+		assertSame(g1, g2);
+		assertTrue(g1.isSchemaInformed());
+		assertTrue(g1.isBuiltInXMLSchemaTypesOnly());
+		assertEquals(4, g1.getGrammarContext().getNumberOfGrammarUriContexts());
+
+		try {
+			((SchemaInformedGrammars) g1).setSchemaId("other");
+			fail("Shared grammars must not be modified");
+		} catch (EXIException e) {
+			// expected
+		}
+	}
+
+	public void testLazyGrammars() throws Exception {
+		String[] xsdLocations = { "./data/schema/vehicle.xsd",
+				"./data/schema/list.xsd", "./data/schema/enumeration.xsd",
+				"./data/schema/nillable.xsd", "./data/schema/all.xsd",
+				"./data/schema/group1.xsd", "./data/schema/identicalQName.xsd",
+				"./data/schema/globalAttribute.xsd" };
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		GrammarFactory lazyGrammarFactory = GrammarFactory.newInstance();
+		lazyGrammarFactory.setLazyGrammars(true);
+
+		for (String xsdLocation : xsdLocations) {
+			Grammars g = grammarFactory.createGrammars(xsdLocation);
+			Grammars lg = lazyGrammarFactory.createGrammars(xsdLocation);
+			// grammars are translated while traversing
+			assertEquals(xsdLocation, toJSON(g), toJSON(lg));
+		}
+	}
+
+	public void testParallelBuild() throws Exception {
+		String[] xsdLocations = { "./data/schema/vehicle.xsd",
+				"./data/schema/all.xsd", "./data/schema/group1.xsd",
+				"./data/schema/substitutionGroup1.xsd",
+				"./data/schema/wildcard.xsd", "./data/schema/any.xsd" };
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		GrammarFactory parallelGrammarFactory = GrammarFactory.newInstance();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		parallelGrammarFactory.setForkJoinPool(pool);
+
+		try {
+			for (String xsdLocation : xsdLocations) {
+				Grammars g = grammarFactory.createGrammars(xsdLocation);
+				Grammars pg = parallelGrammarFactory
+						.createGrammars(xsdLocation);
+				// same grammar graph and event codes
+				assertEquals(xsdLocation, toJSON(g), toJSON(pg));
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testParallelBuildUsesExploredContentModels() throws Exception {
+		String[] xsdLocations = { "./data/schema/vehicle.xsd",
+				"./data/schema/group1.xsd",
+				"./data/schema/substitutionGroup1.xsd",
+				"./data/schema/wildcard.xsd" };
+		final List<Thread> explorers = Collections
+				.synchronizedList(new ArrayList<Thread>());
+		XSDGrammarsBuilder builder = new XSDGrammarsBuilder() {
+			@Override
+			protected CMGraph exploreContentModel(
+					XSComplexTypeDefinition ctd, CMBuilder cmBuilder) {
+				explorers.add(Thread.currentThread());
+				return super.exploreContentModel(ctd, cmBuilder);
+			}
+		};
+		ForkJoinPool pool = new ForkJoinPool(4);
+		builder.setForkJoinPool(pool);
+
+		try {
+			for (String xsdLocation : xsdLocations) {
+				explorers.clear();
+				builder.loadGrammars(xsdLocation);
+				builder.toGrammars();
+				assertFalse(xsdLocation, explorers.isEmpty());
+				// no content model explored again while translating
+				for (Thread t : explorers) {
+					assertTrue(xsdLocation + ", " + t,
+							t instanceof ForkJoinWorkerThread);
+				}
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testContentModelTraversal() throws Exception {
+		final String xsd = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:element name='root'><xs:complexType><xs:sequence>"
+				+ "  <xs:element name='a' type='xs:int' maxOccurs='1000'/>"
+				+ "  <xs:element name='b' type='xs:int' minOccurs='0'/>"
+				+ " </xs:sequence></xs:complexType></xs:element>"
+				+ "</xs:schema>";
+		final String[] structure = new String[2];
+		final Throwable[] error = new Throwable[1];
+		// small stack, one state per occurrence of a
+		Thread t = new Thread(null, new Runnable() {
+			public void run() {
+				try {
+					ContentModelTraversal[] traversals = ContentModelTraversal
+							.values();
+					for (int i = 0; i < traversals.length; i++) {
+						XSDGrammarsBuilder builder = XSDGrammarsBuilder
+								.newInstance();
+						builder.setContentModelTraversal(traversals[i]);
+						builder.loadGrammars(new ByteArrayInputStream(xsd
+								.getBytes("UTF-8")));
+						structure[i] = describe(builder.toGrammars());
+					}
+				} catch (Throwable e) {
+					error[0] = e;
+				}
+			}
+		}, "small-stack", 128 * 1024);
+		t.start();
+		t.join();
+
+		if (error[0] != null) {
+			throw new AssertionError(error[0]);
+		}
+		assertEquals(structure[0], structure[1]);
+	}
+
+	public void testBuildBudgets() throws Exception {
+		String xsd = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:complexType name='T'><xs:sequence>"
+				+ "  <xs:element name='a' type='xs:int' maxOccurs='60'/>"
+				+ "  <xs:any namespace='urn:x' minOccurs='0'/>"
+				+ " </xs:sequence></xs:complexType>"
+				+ " <xs:element name='root' type='T'/>" + "</xs:schema>";
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setMaximumContentModelStates(30);
+		try {
+			grammarFactory.createGrammars(new ByteArrayInputStream(xsd
+					.getBytes("UTF-8")));
+			fail("content model state limit exceeded");
+		} catch (EXIException e) {
+			// diagnostic names the type
+			assertTrue(e.getMessage(), e.getMessage().contains("}T"));
+		}
+
+		grammarFactory.setRelaxedContentModels(true);
+		SchemaInformedGrammars g = (SchemaInformedGrammars) grammarFactory
+				.createGrammars(new ByteArrayInputStream(xsd.getBytes("UTF-8")));
+		Grammar content = contentGrammar(g, "T");
+		// single state: SE(a), SE(urn:x:*), EE
+		assertEquals(3, content.getNumberOfEvents());
+		for (int i = 0; i < content.getNumberOfEvents(); i++) {
+			Production p = content.getProduction(i);
+			if (!p.getEvent().isEventType(EventType.END_ELEMENT)) {
+				assertSame(content, p.getNextGrammar());
+			}
+		}
+
+		grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setMaximumProductions(50);
+		try {
+			grammarFactory.createGrammars(new ByteArrayInputStream(xsd
+					.getBytes("UTF-8")));
+			fail("production limit exceeded");
+		} catch (EXIException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("}T"));
+		}
+
+		// no limits passed
+		grammarFactory.setMaximumProductions(100000);
+		grammarFactory.setMaximumContentModelStates(1000);
+		grammarFactory.setMaximumBuildTime(60000);
+		assertEquals(toJSON(GrammarFactory.newInstance().createGrammars(
+				new ByteArrayInputStream(xsd.getBytes("UTF-8")))),
+				toJSON(grammarFactory.createGrammars(new ByteArrayInputStream(
+						xsd.getBytes("UTF-8")))));
+	}
+
+	public void testSharedContentModel() throws Exception {
+		String xsd = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:group name='g'><xs:sequence>"
+				+ "  <xs:element name='a' type='xs:int'/>"
+				+ "  <xs:element name='b' type='xs:int' minOccurs='0'/>"
+				+ " </xs:sequence></xs:group>"
+				+ " <xs:complexType name='T1'><xs:group ref='g'/></xs:complexType>"
+				+ " <xs:complexType name='T2'><xs:group ref='g'/>"
+				+ "  <xs:attribute name='at' type='xs:int'/></xs:complexType>"
+				+ " <xs:complexType name='T3'><xs:group ref='g' maxOccurs='2'/></xs:complexType>"
+				+ "</xs:schema>";
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		SchemaInformedGrammars g = (SchemaInformedGrammars) grammarFactory
+				.createGrammars(new ByteArrayInputStream(xsd.getBytes("UTF-8")));
+
+		Grammar c1 = contentGrammar(g, "T1");
+		Grammar c2 = contentGrammar(g, "T2");
+		Grammar c3 = contentGrammar(g, "T3");
+		// same model group and occurrences
+		assertSame(c1, c2);
+		assertNotSame(c1, c3);
+	}
+
+	public void testShareAttributeGrammars() throws Exception {
+		String xsd = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:attributeGroup name='ag'>"
+				+ "  <xs:attribute name='a' type='xs:int'/>"
+				+ "  <xs:attribute name='b' type='xs:int'/>"
+				+ "  <xs:attribute name='c' type='xs:int'/>"
+				+ " </xs:attributeGroup>"
+				+ " <xs:complexType name='T1'><xs:attributeGroup ref='ag'/></xs:complexType>"
+				+ " <xs:complexType name='T2'><xs:attributeGroup ref='ag'/></xs:complexType>"
+				+ "</xs:schema>";
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		GrammarFactory sharingGrammarFactory = GrammarFactory.newInstance();
+		sharingGrammarFactory.setShareAttributeGrammars(true);
+		SchemaInformedGrammars g = (SchemaInformedGrammars) grammarFactory
+				.createGrammars(new ByteArrayInputStream(xsd.getBytes("UTF-8")));
+		SchemaInformedGrammars sg = (SchemaInformedGrammars) sharingGrammarFactory
+				.createGrammars(new ByteArrayInputStream(xsd.getBytes("UTF-8")));
+		assertEquals(toJSON(g), toJSON(sg));
+
+		SchemaInformedFirstStartTagGrammar t1 = typeGrammar(sg, "T1");
+		SchemaInformedFirstStartTagGrammar t2 = typeGrammar(sg, "T2");
+		// AT(a) --> shared chain of b and c
+		assertSame(t1.getProduction(0).getNextGrammar(), t2.getProduction(0)
+				.getNextGrammar());
+
+		t1 = typeGrammar(g, "T1");
+		t2 = typeGrammar(g, "T2");
+		assertNotSame(t1.getProduction(0).getNextGrammar(), t2.getProduction(0)
+				.getNextGrammar());
+	}
+
+	public void testGrammarBuildListener() throws Exception {
+		final Map<BuildPhase, Long> phases = new EnumMap<BuildPhase, Long>(
+				BuildPhase.class);
+		final List<Map<BuildCounter, Long>> builds = new ArrayList<Map<BuildCounter, Long>>();
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		assertSame(GrammarBuildListener.NO_OP,
+				grammarFactory.getGrammarBuildListener());
+		grammarFactory.setGrammarBuildListener(new GrammarBuildListener() {
+			public void phaseFinished(BuildPhase phase, long durationNanos) {
+				assertTrue(durationNanos >= 0);
+				phases.put(phase, durationNanos);
+			}
+
+			public void buildFinished(Map<BuildCounter, Long> counters) {
+				builds.add(counters);
+			}
+		});
+		grammarFactory.createGrammars("./data/schema/vehicle.xsd");
+
+		assertEquals(BuildPhase.values().length, phases.size());
+		assertTrue(phases.get(BuildPhase.SCHEMA_LOAD) > 0);
+		assertEquals(1, builds.size());
+		Map<BuildCounter, Long> counters = builds.get(0);
+		assertEquals(BuildCounter.values().length, counters.size());
+		assertTrue(counters.get(BuildCounter.CONTENT_MODEL_STATES) > 0);
+		assertTrue(counters.get(BuildCounter.PRODUCTIONS) > 0);
+		assertTrue(counters.get(BuildCounter.DATATYPES) > 0);
+		assertTrue(counters.get(BuildCounter.DATATYPE_HITS) <= counters
+				.get(BuildCounter.DATATYPE_LOOKUPS));
+		assertTrue(counters.get(BuildCounter.ELEMENT_HITS) <= counters
+				.get(BuildCounter.ELEMENT_LOOKUPS));
+		// no sharing of attribute use grammars
+		assertEquals(0L, counters.get(BuildCounter.ATTRIBUTE_GRAMMAR_LOOKUPS)
+				.longValue());
+
+		// counters start over with every build
+		grammarFactory.createGrammars("./data/schema/vehicle.xsd");
+		assertEquals(2, builds.size());
+		assertEquals(counters, builds.get(1));
+	}
+
+	static SchemaInformedFirstStartTagGrammar typeGrammar(
+			SchemaInformedGrammars g, String type) {
+		return (SchemaInformedFirstStartTagGrammar) g.getGrammarContext()
+				.getGrammarUriContext("").getQNameContext(type)
+				.getTypeGrammar();
+	}
+
+	// content grammar after SE(a) in the start tag of the given type
+	static Grammar contentGrammar(SchemaInformedGrammars g, String type) {
+		Grammar typeGrammar = g.getGrammarContext().getGrammarUriContext("")
+				.getQNameContext(type).getTypeGrammar();
+		for (int i = 0; i < typeGrammar.getNumberOfEvents(); i++) {
+			Production p = typeGrammar.getProduction(i);
+			if (p.getEvent() instanceof StartElement) {
+				return p.getNextGrammar();
+			}
+		}
+		return null;
+	}
+
+	// grammar graph without recursion (large graphs)
+	static String describe(Grammars g) {
+		Map<Grammar, Integer> ids = new IdentityHashMap<Grammar, Integer>();
+		Deque<Grammar> open = new ArrayDeque<Grammar>();
+		StringBuilder sb = new StringBuilder();
+		ids.put(g.getDocumentGrammar(), 0);
+		open.add(g.getDocumentGrammar());
+		while (!open.isEmpty()) {
+			Grammar gr = open.poll();
+			sb.append(ids.get(gr)).append(':');
+			for (int i = 0; i < gr.getNumberOfEvents(); i++) {
+				Production p = gr.getProduction(i);
+				Grammar[] targets = { p.getNextGrammar(),
+						p.getEvent() instanceof StartElement ? ((StartElement) p
+								.getEvent()).getGrammar() : null };
+				sb.append(' ').append(p.getEvent());
+				for (Grammar target : targets) {
+					if (target != null) {
+						if (!ids.containsKey(target)) {
+							ids.put(target, ids.size());
+							open.add(target);
+						}
+						sb.append('>').append(ids.get(target));
+					}
+				}
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	static String importingSchema(String ns) {
+		return "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'"
+				+ " xmlns:b='urn:base' targetNamespace='" + ns + "'>"
+				+ " <xs:import namespace='urn:base' schemaLocation='base.xsd'/>"
+				+ " <xs:element name='root' type='b:T'/>" + "</xs:schema>";
+	}
+
+	static String baseSchema(String elementName) {
+		return "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'"
+				+ " targetNamespace='urn:base'"
+				+ " elementFormDefault='qualified'>"
+				+ " <xs:complexType name='T'><xs:sequence>"
+				+ "  <xs:element name='" + elementName + "' type='xs:int'/>"
+				+ " </xs:sequence></xs:complexType>" + "</xs:schema>";
+	}
+
+	public void testSchemaGrammarPool() throws Exception {
+		File dir = createTempDir();
+		File base = new File(dir, "base.xsd");
+		File a = new File(dir, "a.xsd");
+		File b = new File(dir, "b.xsd");
+		writeFile(base, baseSchema("x"));
+		writeFile(a, importingSchema("urn:a"));
+		writeFile(b, importingSchema("urn:b"));
+		base.deleteOnExit();
+		a.deleteOnExit();
+		b.deleteOnExit();
+
+		SchemaGrammarPool pool = SchemaGrammarPool.newInstance();
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		grammarFactory.setSchemaGrammarPool(pool);
+
+		Grammars ga = grammarFactory.createGrammars(a.getPath());
+		assertNotNull(ga.getGrammarContext().getGrammarUriContext("urn:base")
+				.getQNameContext("x"));
+		assertTrue(pool.getNamespaces().contains("urn:base"));
+		assertTrue(pool.getNamespaces().contains("urn:a"));
+
+		// unchanged pooled base namespace is not parsed again
+		XSDDescription baseImport = new XSDDescription();
+		baseImport.setContextType(XSDDescription.CONTEXT_IMPORT);
+		baseImport.setTargetNamespace("urn:base");
+		org.apache.xerces.xni.grammars.Grammar pooledBase = pool
+				.retrieveGrammar(baseImport);
+		assertNotNull(pooledBase);
+		Grammars gb = grammarFactory.createGrammars(b.getPath());
+		assertNotNull(gb.getGrammarContext().getGrammarUriContext("urn:base")
+				.getQNameContext("x"));
+		assertSame(pooledBase, pool.retrieveGrammar(baseImport));
+		assertTrue(pool.getNamespaces().contains("urn:b"));
+
+		// modified base is parsed again, importing namespaces as well
+		writeFile(base, baseSchema("y"));
+		Grammars ga2 = grammarFactory.createGrammars(a.getPath());
+		assertNotNull(ga2.getGrammarContext().getGrammarUriContext("urn:base")
+				.getQNameContext("y"));
+		assertNull(ga2.getGrammarContext().getGrammarUriContext("urn:base")
+				.getQNameContext("x"));
+		assertNotSame(pooledBase, pool.retrieveGrammar(baseImport));
+		assertFalse(pool.getNamespaces().contains("urn:b"));
+
+		// invalidating base removes importing namespaces as well
+		grammarFactory.createGrammars(b.getPath());
+		assertTrue(pool.invalidate("urn:base"));
+		assertFalse(pool.getNamespaces().contains("urn:base"));
+		assertFalse(pool.getNamespaces().contains("urn:a"));
+		assertFalse(pool.getNamespaces().contains("urn:b"));
+		gb = grammarFactory.createGrammars(b.getPath());
+		assertNotNull(gb.getGrammarContext().getGrammarUriContext("urn:base")
+				.getQNameContext("y"));
+
+		pool.clear();
+		assertTrue(pool.getNamespaces().isEmpty());
+	}
+
+	public void testCachingEntityResolver() throws Exception {
+		File dir = createTempDir();
+		File base = new File(dir, "base.xsd");
+		File a = new File(dir, "a.xsd");
+		writeFile(base, baseSchema("x"));
+		writeFile(a, importingSchema("urn:a"));
+
+		CachingEntityResolver resolver = CachingEntityResolver.newInstance();
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		Grammars g1 = grammarFactory.createGrammars(a.getPath(), resolver);
+		assertTrue(resolver.getSize() > 0);
+
+		// documents are served from memory
+		assertTrue(base.delete());
+		assertTrue(a.delete());
+		Grammars g2 = grammarFactory.createGrammars(a.getPath(), resolver);
+		assertEquals(toJSON(g1), toJSON(g2));
+
+		// size-bounded eviction
+		CachingEntityResolver small = CachingEntityResolver.newInstance(null,
+				1);
+		writeFile(base, baseSchema("x"));
+		writeFile(a, importingSchema("urn:a"));
+		grammarFactory.createGrammars(a.getPath(), small);
+		assertEquals(0, small.getSize());
+		assertTrue(base.delete());
+		assertTrue(a.delete());
+		try {
+			grammarFactory.createGrammars(a.getPath(), small);
+			fail("Documents are not cached");
+		} catch (EXIException e) {
+			// expected
+		}
+
+		// preloaded zip bundle
+		File zip = new File(dir, "bundle.zip");
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(zip));
+		try {
+			zos.putNextEntry(new ZipEntry("base.xsd"));
+			zos.write(baseSchema("x").getBytes("UTF-8"));
+			zos.putNextEntry(new ZipEntry("a.xsd"));
+			zos.write(importingSchema("urn:a").getBytes("UTF-8"));
+		} finally {
+			zos.close();
+		}
+		CachingEntityResolver bundled = CachingEntityResolver.newInstance(
+				null, 0);
+		bundled.preloadZip(zip, dir.getPath());
+		assertTrue(zip.delete());
+		Grammars g3 = grammarFactory.createGrammars(a.getPath(), bundled);
+		assertEquals(toJSON(g1), toJSON(g3));
+		assertEquals(0, bundled.getSize());
+		assertTrue(dir.delete());
+	}
+
+	public void testChangeDetectingGrammarBuilder() throws Exception {
+		File dir = createTempDir();
+		File base = new File(dir, "base.xsd");
+		File a = new File(dir, "a.xsd");
+		File other = new File(dir, "other.xsd");
+		writeFile(base, baseSchema("x"));
+		writeFile(other, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'"
+				+ " targetNamespace='urn:other'>"
+				+ " <xs:element name='o' type='xs:string'/>" + "</xs:schema>");
+		writeFile(a, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'"
+				+ " xmlns:b='urn:base' xmlns:o='urn:other'"
+				+ " targetNamespace='urn:a'>"
+				+ " <xs:import namespace='urn:base' schemaLocation='base.xsd'/>"
+				+ " <xs:import namespace='urn:other' schemaLocation='other.xsd'/>"
+				+ " <xs:element name='root' type='b:T'/>" + "</xs:schema>");
+		base.deleteOnExit();
+		a.deleteOnExit();
+		other.deleteOnExit();
+
+		ChangeDetectingGrammarBuilder cdgb = ChangeDetectingGrammarBuilder
+				.newInstance(a.getPath());
+		Grammars g1 = cdgb.getGrammars();
+		assertSame(g1, cdgb.getGrammars());
+		assertTrue(cdgb.getChangedNamespaces().isEmpty());
+
+		writeFile(base, baseSchema("y"));
+		Grammars g2 = cdgb.getGrammars();
+		assertNotSame(g1, g2);
+		assertEquals(1, cdgb.getChangedNamespaces().size());
+		assertTrue(cdgb.getChangedNamespaces().contains("urn:base"));
+		assertNotNull(g2.getGrammarContext().getGrammarUriContext("urn:base")
+				.getQNameContext("y"));
+		// unchanged namespace is not parsed again
+		assertTrue(cdgb.schemaGrammarPool.getNamespaces().contains("urn:other"));
+		assertEquals(toJSON(GrammarFactory.newInstance().createGrammars(
+				a.getPath())), toJSON(g2));
+	}
+
+	public void testChangeDetectingGrammarBuilderNoNamespace() throws Exception {
+		File dir = createTempDir();
+		File n = new File(dir, "n.xsd");
+		File a = new File(dir, "a.xsd");
+		File r = new File(dir, "r.xsd");
+		writeFile(n, noNamespaceSchema("x"));
+		writeFile(a, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'"
+				+ " targetNamespace='urn:a'>"
+				+ " <xs:import schemaLocation='n.xsd'/>"
+				+ " <xs:element name='a' type='T'/>" + "</xs:schema>");
+		writeFile(r, "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'"
+				+ " targetNamespace='urn:r'>"
+				+ " <xs:import namespace='urn:a' schemaLocation='a.xsd'/>"
+				+ " <xs:element name='r' type='xs:string'/>" + "</xs:schema>");
+		n.deleteOnExit();
+		a.deleteOnExit();
+		r.deleteOnExit();
+
+		ChangeDetectingGrammarBuilder cdgb = ChangeDetectingGrammarBuilder
+				.newInstance(r.getPath());
+		Grammars g1 = cdgb.getGrammars();
+		assertNotNull(g1.getGrammarContext().getGrammarUriContext("")
+				.getQNameContext("x"));
+		assertTrue(cdgb.schemaGrammarPool.getNamespaces().contains("urn:a"));
+
+		// pooled importer of the no-namespace schema is parsed again
+		writeFile(n, noNamespaceSchema("y"));
+		Grammars g2 = cdgb.getGrammars();
+		assertTrue(cdgb.getChangedNamespaces().contains(""));
+		assertNotNull(g2.getGrammarContext().getGrammarUriContext("")
+				.getQNameContext("y"));
+		assertNull(g2.getGrammarContext().getGrammarUriContext("")
+				.getQNameContext("x"));
+		assertEquals(toJSON(GrammarFactory.newInstance().createGrammars(
+				r.getPath())), toJSON(g2));
+	}
+
+	static String noNamespaceSchema(String elementName) {
+		return "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ " <xs:complexType name='T'><xs:sequence>"
+				+ "  <xs:element name='" + elementName + "' type='xs:int'/>"
+				+ " </xs:sequence></xs:complexType>" + "</xs:schema>";
+	}
+
+	public void testCreateGrammarsFromXSModel() throws Exception {
+		String[] xsdLocations = { "./data/schema/vehicle.xsd",
+				"./data/schema/substitutionGroup1.xsd",
+				"./data/schema/identicalQName.xsd" };
+		GrammarFactory grammarFactory = GrammarFactory.newInstance();
+		for (String xsdLocation : xsdLocations) {
+			XSModel xsModel = new XMLSchemaLoader().loadURI(xsdLocation);
+			assertEquals(xsdLocation,
+					toJSON(grammarFactory.createGrammars(xsdLocation)),
+					toJSON(grammarFactory.createGrammars(xsModel)));
+		}
+
+		try {
+			grammarFactory.createGrammars((XSModel) null);
+			fail("No Xerces model");
+		} catch (EXIException e) {
+			// expected
+		}
+	}
+
+}
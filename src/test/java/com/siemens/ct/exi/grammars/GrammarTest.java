@@ -26,6 +26,7 @@ package com.siemens.ct.exi.grammars;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
 
 import javax.xml.namespace.QName;
 
@@ -44,6 +45,9 @@ import com.siemens.ct.exi.core.context.GrammarContext;
 import com.siemens.ct.exi.core.context.QNameContext;
 import com.siemens.ct.exi.core.datatype.Datatype;
 import com.siemens.ct.exi.core.datatype.EnumerationDatatype;
+import com.siemens.ct.exi.core.datatype.NBitUnsignedIntegerDatatype;
+import com.siemens.ct.exi.core.datatype.RestrictedCharacterSetDatatype;
+import com.siemens.ct.exi.core.datatype.charset.RestrictedCharacterSet;
 import com.siemens.ct.exi.core.exceptions.EXIException;
 import com.siemens.ct.exi.core.grammars.Grammars;
 import com.siemens.ct.exi.core.grammars.event.Attribute;
@@ -54,6 +58,14 @@ import com.siemens.ct.exi.core.grammars.grammar.BuiltInStartTag;
 import com.siemens.ct.exi.core.grammars.grammar.Grammar;
 import com.siemens.ct.exi.core.grammars.production.Production;
 import com.siemens.ct.exi.core.types.BuiltInType;
+import com.siemens.ct.exi.core.types.DateTimeType;
+import com.siemens.ct.exi.core.values.DateTimeValue;
+import com.siemens.ct.exi.core.values.DecimalValue;
+import com.siemens.ct.exi.core.values.FloatValue;
+import com.siemens.ct.exi.core.values.IntegerValue;
+import com.siemens.ct.exi.core.values.StringValue;
+import com.siemens.ct.exi.core.values.Value;
+import com.siemens.ct.exi.grammars.regex.EXIRegularExpression;
 
 public class GrammarTest extends TestCase {
 	String schema;
@@ -659,6 +671,222 @@ public class GrammarTest extends TestCase {
 				.equals(schemaTypeStringDerived));
 	}
 
+	public void testEnumIndex() throws Exception {
+		schema = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ "  <xs:simpleType name='intEnum'>"
+				+ "    <xs:restriction base='xs:int'>"
+				+ "      <xs:enumeration value='01'/>"
+				+ "      <xs:enumeration value='2'/>"
+				+ "      <xs:enumeration value='-3'/>"
+				+ "    </xs:restriction>" + "  </xs:simpleType>"
+				+ "  <xs:simpleType name='stringEnum'>"
+				+ "    <xs:restriction base='xs:string'>"
+				+ "      <xs:enumeration value='EUR'/>"
+				+ "      <xs:enumeration value='USD'/>"
+				+ "    </xs:restriction>" + "  </xs:simpleType>" + "</xs:schema>";
+
+		IndexedEnumerationDatatype intEnum = (IndexedEnumerationDatatype) getSimpleDatatypeFor(
+				schema, "intEnum", "");
+		assertEquals(0, intEnum.getEnumValueIndex(IntegerValue.valueOf(1)));
+		assertEquals(2, intEnum.getEnumValueIndex(IntegerValue.valueOf(-3)));
+		assertEquals(-1, intEnum.getEnumValueIndex(IntegerValue.valueOf(3)));
+		// string representations, lexical and canonical
+		assertEquals(0, intEnum.getEnumValueIndex(new StringValue("01")));
+		assertEquals(0, intEnum.getEnumValueIndex(new StringValue("1")));
+		assertEquals(-1, intEnum.getEnumValueIndex(new StringValue("x")));
+		assertEquals(0, intEnum.getEnumValueIndex("01"));
+		assertEquals(0, intEnum.getEnumValueIndex("1"));
+		assertEquals(1, intEnum.getEnumValueIndex("2"));
+		assertEquals(-1, intEnum.getEnumValueIndex("4"));
+
+		IndexedEnumerationDatatype stringEnum = (IndexedEnumerationDatatype) getSimpleDatatypeFor(
+				schema, "stringEnum", "");
+		assertEquals(1, stringEnum.getEnumValueIndex(new StringValue("USD")));
+		assertEquals(-1, stringEnum.getEnumValueIndex(new StringValue("GBP")));
+		// same result as comparing all enumeration values
+		for (int i = 0; i < stringEnum.getEnumerationSize(); i++) {
+			assertEquals(i,
+					stringEnum.getEnumValueIndex(stringEnum.getEnumValue(i)));
+		}
+	}
+
+	public void testEnumIndexOtherRepresentations() throws Exception {
+		schema = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ "  <xs:simpleType name='decimalEnum'>"
+				+ "    <xs:restriction base='xs:decimal'>"
+				+ "      <xs:enumeration value='1.5'/>"
+				+ "      <xs:enumeration value='2.50'/>"
+				+ "      <xs:enumeration value='-3'/>"
+				+ "    </xs:restriction>" + "  </xs:simpleType>"
+				+ "  <xs:simpleType name='floatEnum'>"
+				+ "    <xs:restriction base='xs:float'>"
+				+ "      <xs:enumeration value='1.5'/>"
+				+ "      <xs:enumeration value='1E2'/>"
+				+ "      <xs:enumeration value='-0.25'/>"
+				+ "    </xs:restriction>" + "  </xs:simpleType>"
+				+ "  <xs:simpleType name='dateTimeEnum'>"
+				+ "    <xs:restriction base='xs:dateTime'>"
+				+ "      <xs:enumeration value='2020-01-01T00:00:00Z'/>"
+				+ "      <xs:enumeration value='2020-06-01T12:00:00+02:00'/>"
+				+ "    </xs:restriction>" + "  </xs:simpleType>"
+				+ "</xs:schema>";
+
+		IndexedEnumerationDatatype decimalEnum = (IndexedEnumerationDatatype) getSimpleDatatypeFor(
+				schema, "decimalEnum", "");
+		assertEnumValueIndex(decimalEnum, DecimalValue.parse("1.5"));
+		assertEnumValueIndex(decimalEnum, DecimalValue.parse("1.50"));
+		assertEnumValueIndex(decimalEnum, DecimalValue.parse("2.5"));
+		assertEnumValueIndex(decimalEnum, DecimalValue.parse("-3.0"));
+		assertEnumValueIndex(decimalEnum, DecimalValue.parse("4"));
+
+		IndexedEnumerationDatatype floatEnum = (IndexedEnumerationDatatype) getSimpleDatatypeFor(
+				schema, "floatEnum", "");
+		assertEnumValueIndex(floatEnum, FloatValue.parse("15E-1"));
+		assertEnumValueIndex(floatEnum, FloatValue.parse("100"));
+		assertEnumValueIndex(floatEnum, FloatValue.parse("1.0E2"));
+		assertEnumValueIndex(floatEnum, FloatValue.parse("-25E-2"));
+		assertEnumValueIndex(floatEnum, FloatValue.parse("2"));
+
+		IndexedEnumerationDatatype dateTimeEnum = (IndexedEnumerationDatatype) getSimpleDatatypeFor(
+				schema, "dateTimeEnum", "");
+		assertEnumValueIndex(dateTimeEnum, DateTimeValue.parse(
+				"2020-01-01T00:00:00+00:00", DateTimeType.dateTime));
+		assertEnumValueIndex(dateTimeEnum, DateTimeValue.parse(
+				"2020-06-01T10:00:00Z", DateTimeType.dateTime));
+		assertEnumValueIndex(dateTimeEnum, DateTimeValue.parse(
+				"2020-06-01T12:00:00+02:00", DateTimeType.dateTime));
+		assertEnumValueIndex(dateTimeEnum, DateTimeValue.parse(
+				"2021-01-01T00:00:00Z", DateTimeType.dateTime));
+
+		IndexedEnumerationDatatype[] enums = { decimalEnum, floatEnum,
+				dateTimeEnum };
+		for (IndexedEnumerationDatatype edt : enums) {
+			for (int i = 0; i < edt.getEnumerationSize(); i++) {
+				assertEquals(i, edt.getEnumValueIndex(edt.getEnumValue(i)));
+			}
+		}
+	}
+
+	/*
+	 * Same index as comparing all enumeration values in order
+	 */
+	private static void assertEnumValueIndex(EnumerationDatatype edt,
+			Value value) {
+		assertNotNull(value);
+		int expected = -1;
+		for (int i = 0; i < edt.getEnumerationSize() && expected == -1; i++) {
+			if (edt.getEnumValue(i).equals(value)) {
+				expected = i;
+			}
+		}
+		assertEquals(value.toString(), expected,
+				((IndexedEnumerationDatatype) edt).getEnumValueIndex(value));
+	}
+
+	private static String integerType(String name, String base, String facets) {
+		return "  <xs:simpleType name='" + name + "'>"
+				+ "    <xs:restriction base='xs:" + base + "'>" + facets
+				+ "    </xs:restriction>" + "  </xs:simpleType>";
+	}
+
+	public void testIntegerFacets() throws Exception {
+		schema = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ integerType("nbit4096", "integer",
+						"<xs:minInclusive value='-10'/><xs:maxExclusive value='4086'/>")
+				+ integerType("int4097", "integer",
+						"<xs:minExclusive value='-11'/><xs:maxInclusive value='4086'/>")
+				+ integerType("longMax", "long",
+						"<xs:minExclusive value='9223372036854771711'/>")
+				+ integerType("longMin", "long",
+						"<xs:maxInclusive value='-9223372036854771713'/>")
+				+ integerType("big", "integer",
+						"<xs:minInclusive value='100000000000000000000'/><xs:maxInclusive value='100000000000000000010'/>")
+				+ integerType("unsigned", "integer",
+						"<xs:minExclusive value='-1'/>")
+				+ integerType("unsignedLong", "unsignedLong", "")
+				+ integerType("signed", "int",
+						"<xs:maxInclusive value='5000'/>") + "</xs:schema>";
+
+		// range of exactly 4096 values is n-bit, 4097 is not
+		Datatype dt = getSimpleDatatypeFor(schema, "nbit4096", "");
+		assertEquals(BuiltInType.NBIT_UNSIGNED_INTEGER, dt.getBuiltInType());
+		assertEquals(IntegerValue.valueOf(-10),
+				((NBitUnsignedIntegerDatatype) dt).getLowerBound());
+		assertEquals(IntegerValue.valueOf(4085),
+				((NBitUnsignedIntegerDatatype) dt).getUpperBound());
+		assertEquals(BuiltInType.INTEGER,
+				getSimpleDatatypeFor(schema, "int4097", "").getBuiltInType());
+
+		// native long bounds
+		dt = getSimpleDatatypeFor(schema, "longMax", "");
+		assertEquals(BuiltInType.NBIT_UNSIGNED_INTEGER, dt.getBuiltInType());
+		assertEquals(IntegerValue.valueOf(Long.MAX_VALUE),
+				((NBitUnsignedIntegerDatatype) dt).getUpperBound());
+		dt = getSimpleDatatypeFor(schema, "longMin", "");
+		assertEquals(BuiltInType.NBIT_UNSIGNED_INTEGER, dt.getBuiltInType());
+		assertEquals(IntegerValue.valueOf(Long.MIN_VALUE),
+				((NBitUnsignedIntegerDatatype) dt).getLowerBound());
+
+		// beyond long
+		dt = getSimpleDatatypeFor(schema, "big", "");
+		assertEquals(BuiltInType.NBIT_UNSIGNED_INTEGER, dt.getBuiltInType());
+		assertEquals(
+				IntegerValue.valueOf(new BigInteger("100000000000000000000")),
+				((NBitUnsignedIntegerDatatype) dt).getLowerBound());
+
+		assertEquals(BuiltInType.UNSIGNED_INTEGER,
+				getSimpleDatatypeFor(schema, "unsigned", "").getBuiltInType());
+		assertEquals(BuiltInType.UNSIGNED_INTEGER,
+				getSimpleDatatypeFor(schema, "unsignedLong", "")
+						.getBuiltInType());
+		assertEquals(BuiltInType.INTEGER,
+				getSimpleDatatypeFor(schema, "signed", "").getBuiltInType());
+	}
+
+	private static String patternType(String name, String pattern) {
+		return "  <xs:simpleType name='" + name + "'>"
+				+ "    <xs:restriction base='xs:string'>"
+				+ "      <xs:pattern value='" + pattern + "'/>"
+				+ "    </xs:restriction>" + "  </xs:simpleType>";
+	}
+
+	public void testPatternCharacterSet() throws Exception {
+		schema = "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>"
+				+ patternType("abcx", "([a-c]{2}x)?")
+				+ patternType("alnum", "[A-Za-z0-9]+")
+				+ patternType("alnum2", "[A-Za-z0-9]+")
+				+ patternType("latin", "[&#x100;-&#x1FF;]+")
+				+ patternType("any", "a.") + "</xs:schema>";
+
+		Datatype dt = getSimpleDatatypeFor(schema, "alnum", "");
+		assertEquals(BuiltInType.RCS_STRING, dt.getBuiltInType());
+		RestrictedCharacterSet rcs = ((RestrictedCharacterSetDatatype) dt)
+				.getRestrictedCharacterSet();
+		assertEquals(62, rcs.size());
+		// code point order
+		assertEquals('0', rcs.getCodePoint(0));
+		assertEquals('A', rcs.getCodePoint(10));
+		assertEquals('z', rcs.getCodePoint(61));
+		assertEquals(10, rcs.getCode('A'));
+		// recurring pattern analyzed once
+		assertSame(rcs,
+				((RestrictedCharacterSetDatatype) getSimpleDatatypeFor(schema,
+						"alnum2", "")).getRestrictedCharacterSet());
+		assertSame(rcs,
+				EXIRegularExpression
+						.getCachedRestrictedCharacterSet("[A-Za-z0-9]+"));
+		dt = getSimpleDatatypeFor(schema, "abcx", "");
+		assertEquals(4, ((RestrictedCharacterSetDatatype) dt)
+				.getRestrictedCharacterSet().size());
+
+		// union of ranges exceeds the limit
+		assertEquals(BuiltInType.STRING,
+				getSimpleDatatypeFor(schema, "latin", "").getBuiltInType());
+		assertEquals(BuiltInType.STRING,
+				getSimpleDatatypeFor(schema, "any", "").getBuiltInType());
+		assertNull(EXIRegularExpression.getCachedRestrictedCharacterSet("a."));
+	}
+
 	// public void testSequenceSourceForgeForum1_() throws Exception {
 	// String schema = "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n"
 	// +